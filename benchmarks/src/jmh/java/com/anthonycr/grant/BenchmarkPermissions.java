@@ -0,0 +1,69 @@
+package com.anthonycr.grant;
+
+import android.content.pm.PackageManager;
+import android.support.v4.content.ContextCompat;
+
+/**
+ * Shared fixtures for the benchmarks: the permissions they check and
+ * request, and the grant state the stand-in platform reports for them.
+ */
+final class BenchmarkPermissions {
+
+    static final String CAMERA = "android.permission.CAMERA";
+    static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    static final String ACCESS_FINE_LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+    static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+    static final String WRITE_EXTERNAL_STORAGE = "android.permission.WRITE_EXTERNAL_STORAGE";
+
+    static final String[] GRANTED = {CAMERA, READ_CONTACTS, ACCESS_FINE_LOCATION, RECORD_AUDIO};
+    static final String[] DENIED = {WRITE_EXTERNAL_STORAGE};
+
+    private BenchmarkPermissions() {}
+
+    static void install() {
+        for (String permission : GRANTED) {
+            ContextCompat.setGranted(permission, true);
+        }
+        for (String permission : DENIED) {
+            ContextCompat.setGranted(permission, false);
+        }
+        String[] manifest = new String[GRANTED.length + DENIED.length];
+        System.arraycopy(GRANTED, 0, manifest, 0, GRANTED.length);
+        System.arraycopy(DENIED, 0, manifest, GRANTED.length, DENIED.length);
+        PackageManager.setRequestedPermissions(manifest);
+    }
+
+    static int[] results(String[] permissions, int result) {
+        int[] results = new int[permissions.length];
+        for (int n = 0; n < results.length; n++) {
+            results[n] = result;
+        }
+        return results;
+    }
+
+    /**
+     * An action that only counts its callbacks, so that the benchmarks
+     * measure the library and not the work done in the callbacks.
+     */
+    static final class CountingAction extends PermissionsResultAction {
+
+        int mGranted;
+        int mDenied;
+
+        CountingAction() {}
+
+        CountingAction(java.util.concurrent.Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        public void onGranted() {
+            mGranted++;
+        }
+
+        @Override
+        public void onDenied(String permission) {
+            mDenied++;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+import android.os.Looper;
+import android.support.v4.app.ActivityCompat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures delivering a request result to the pending actions. Before every
+ * invocation the given number of actions wait on the same permission, so the
+ * library issues one request and the benchmark delivers its result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class NotifyPermissionsChangeBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int pendingActions;
+
+    private PermissionsManager mManager;
+    private Activity mActivity;
+    private final List<BenchmarkPermissions.CountingAction> mActions = new ArrayList<>();
+    private final String[] mPermissions = BenchmarkPermissions.DENIED;
+    private final int[] mResults = BenchmarkPermissions.results(BenchmarkPermissions.DENIED,
+        PackageManager.PERMISSION_GRANTED);
+    private int mRequestCode;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        BenchmarkPermissions.install();
+        mManager = PermissionsManager.getInstance();
+        mActivity = new Activity();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        // The actions are held here because the library only keeps weak references to them.
+        mActions.clear();
+        for (int n = 0; n < pendingActions; n++) {
+            BenchmarkPermissions.CountingAction action = new BenchmarkPermissions.CountingAction();
+            mActions.add(action);
+            mManager.requestPermissionsIfNecessaryForResult(mActivity, mPermissions, action);
+        }
+        mRequestCode = ActivityCompat.getLastRequestCode();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        Looper.getMainLooper().runQueued();
+        // The stand-in platform still reports the permission as denied, so the
+        // next invocation has to request it again.
+        mManager.invalidatePermissionsCache();
+    }
+
+    @Benchmark
+    public void notifyPermissionsChange() {
+        mManager.notifyPermissionsChange(mRequestCode, mPermissions, mResults);
+    }
+}
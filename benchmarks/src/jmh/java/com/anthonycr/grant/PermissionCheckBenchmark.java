@@ -0,0 +1,71 @@
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the permission checks, which apps tend to call on every resume
+ * and from several threads at once. The contended variants run on as many
+ * threads as there are processors to show whether the checks serialize.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class PermissionCheckBenchmark {
+
+    private PermissionsManager mManager;
+    private Context mContext;
+    private PermissionRequest mRequest;
+
+    @Setup
+    public void setUp() {
+        BenchmarkPermissions.install();
+        mManager = PermissionsManager.getInstance();
+        mContext = new Activity();
+        mRequest = PermissionRequest.of(BenchmarkPermissions.GRANTED);
+    }
+
+    @Benchmark
+    public boolean hasPermission() {
+        return mManager.hasPermission(mContext, BenchmarkPermissions.CAMERA);
+    }
+
+    @Benchmark
+    public boolean hasPermissionUncached() {
+        mManager.invalidatePermissionsCache();
+        return mManager.hasPermission(mContext, BenchmarkPermissions.CAMERA);
+    }
+
+    @Benchmark
+    public boolean hasAllPermissions() {
+        return mManager.hasAllPermissions(mContext, BenchmarkPermissions.GRANTED);
+    }
+
+    @Benchmark
+    public boolean hasAllPermissionsPrecompiled() {
+        return mManager.hasAllPermissions(mContext, mRequest);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean hasPermissionContended() {
+        return mManager.hasPermission(mContext, BenchmarkPermissions.CAMERA);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean hasAllPermissionsContended() {
+        return mManager.hasAllPermissions(mContext, BenchmarkPermissions.GRANTED);
+    }
+}
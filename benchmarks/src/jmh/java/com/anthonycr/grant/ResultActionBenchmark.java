@@ -0,0 +1,58 @@
+package com.anthonycr.grant;
+
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single result reaching a {@link PermissionsResultAction} and its
+ * callback being dispatched, either through the main thread message queue or
+ * on an executor that runs the callback directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ResultActionBenchmark {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final String[] mPermissions = {BenchmarkPermissions.CAMERA};
+    private final int[] mIds = PlatformPermissions.idsOf(mPermissions);
+
+    private BenchmarkPermissions.CountingAction mLooperAction;
+    private BenchmarkPermissions.CountingAction mExecutorAction;
+
+    @Setup
+    public void setUp() {
+        mLooperAction = new BenchmarkPermissions.CountingAction();
+        mExecutorAction = new BenchmarkPermissions.CountingAction(DIRECT);
+    }
+
+    @Benchmark
+    public int onResultLooper() {
+        mLooperAction.registerPermissions(mPermissions, mIds);
+        mLooperAction.onResult(mIds[0], BenchmarkPermissions.CAMERA, Permissions.GRANTED);
+        return Looper.getMainLooper().runQueued();
+    }
+
+    @Benchmark
+    public int onResultExecutor() {
+        mExecutorAction.registerPermissions(mPermissions, mIds);
+        mExecutorAction.onResult(mIds[0], BenchmarkPermissions.CAMERA, Permissions.GRANTED);
+        return mExecutorAction.mGranted;
+    }
+}
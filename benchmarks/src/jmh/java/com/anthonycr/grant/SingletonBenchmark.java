@@ -0,0 +1,37 @@
+package com.anthonycr.grant;
+
+import android.app.Activity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cold start cost of the library: loading the classes, building
+ * the singleton and answering the first permission check. Every measurement
+ * runs in a fresh JVM because this work only happens once per process.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class SingletonBenchmark {
+
+    @Benchmark
+    public PermissionsManager getInstance() {
+        return PermissionsManager.getInstance();
+    }
+
+    @Benchmark
+    public boolean firstPermissionCheck() {
+        BenchmarkPermissions.install();
+        return PermissionsManager.getInstance().hasPermission(new Activity(), BenchmarkPermissions.CAMERA);
+    }
+}
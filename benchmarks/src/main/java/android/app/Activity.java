@@ -0,0 +1,46 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public class Activity extends Context {
+
+    private final Application mApplication = new Application();
+    private volatile boolean mFinishing = false;
+    private volatile boolean mChangingConfigurations = false;
+
+    public Application getApplication() {
+        return mApplication;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return mApplication;
+    }
+
+    public void finish() {
+        mFinishing = true;
+    }
+
+    public boolean isFinishing() {
+        return mFinishing;
+    }
+
+    public boolean isDestroyed() {
+        return mFinishing || mChangingConfigurations;
+    }
+
+    /**
+     * Destroys the Activity the way a configuration change does, after which
+     * the caller is expected to carry on with a new Activity.
+     */
+    public void recreate() {
+        mChangingConfigurations = true;
+    }
+
+    public boolean isChangingConfigurations() {
+        return mChangingConfigurations;
+    }
+}
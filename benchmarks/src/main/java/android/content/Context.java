@@ -0,0 +1,28 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+import android.os.Looper;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public class Context {
+
+    private final PackageManager mPackageManager = new PackageManager();
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public String getPackageName() {
+        return "com.anthonycr.grant.benchmarks";
+    }
+
+    public PackageManager getPackageManager() {
+        return mPackageManager;
+    }
+
+    public Looper getMainLooper() {
+        return Looper.getMainLooper();
+    }
+}
@@ -0,0 +1,10 @@
+package android.content.pm;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public class PackageInfo {
+    public String packageName;
+    public int versionCode;
+    public String[] requestedPermissions;
+}
@@ -0,0 +1,30 @@
+package android.content.pm;
+
+/**
+ * JVM stand-in for the Android class of the same name. The permissions
+ * declared in the fake manifest can be set with {@link #setRequestedPermissions(String[])}.
+ */
+public class PackageManager {
+
+    public static final int PERMISSION_GRANTED = 0;
+    public static final int PERMISSION_DENIED = -1;
+    public static final int GET_PERMISSIONS = 0x00001000;
+
+    private static volatile String[] sRequestedPermissions = new String[0];
+
+    public static class NameNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static void setRequestedPermissions(String[] permissions) {
+        sRequestedPermissions = permissions.clone();
+    }
+
+    public PackageInfo getPackageInfo(String packageName, int flags) throws NameNotFoundException {
+        PackageInfo info = new PackageInfo();
+        info.packageName = packageName;
+        info.versionCode = 1;
+        info.requestedPermissions = sRequestedPermissions.clone();
+        return info;
+    }
+}
@@ -0,0 +1,23 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class of the same name. The SDK version
+ * can be set with the android.sdk system property and defaults to 25.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = Integer.getInteger("android.sdk", 25);
+    }
+
+    public static class VERSION_CODES {
+        public static final int GINGERBREAD = 9;
+        public static final int HONEYCOMB = 11;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int N_MR1 = 25;
+    }
+}
@@ -0,0 +1,61 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public final class Bundle {
+
+    private final Map<String, Object> mValues = new HashMap<>();
+
+    public boolean containsKey(String key) {
+        return mValues.containsKey(key);
+    }
+
+    public void putInt(String key, int value) {
+        mValues.put(key, value);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        Object value = mValues.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public void putLong(String key, long value) {
+        mValues.put(key, value);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        Object value = mValues.get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public void putIntArray(String key, int[] value) {
+        mValues.put(key, value);
+    }
+
+    public int[] getIntArray(String key) {
+        Object value = mValues.get(key);
+        return value instanceof int[] ? (int[]) value : null;
+    }
+
+    public void putStringArray(String key, String[] value) {
+        mValues.put(key, value);
+    }
+
+    public String[] getStringArray(String key) {
+        Object value = mValues.get(key);
+        return value instanceof String[] ? (String[]) value : null;
+    }
+
+    public void putBundle(String key, Bundle value) {
+        mValues.put(key, value);
+    }
+
+    public Bundle getBundle(String key) {
+        Object value = mValues.get(key);
+        return value instanceof Bundle ? (Bundle) value : null;
+    }
+}
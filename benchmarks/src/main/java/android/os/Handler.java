@@ -0,0 +1,36 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public class Handler {
+
+    private final Looper mLooper;
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return mLooper.mQueue.add(r);
+    }
+
+    /**
+     * The stand-in Looper has no clock, so the task is queued right away.
+     */
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return post(r);
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        mLooper.mQueue.remove(r);
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+}
@@ -0,0 +1,36 @@
+package android.os;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * JVM stand-in for the Android class of the same name. Nothing runs the
+ * queue automatically, call {@link #runQueued()} to run the posted messages
+ * on the calling thread.
+ */
+public final class Looper {
+
+    private static final Looper sMainLooper = new Looper();
+
+    final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<>();
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sMainLooper;
+    }
+
+    /**
+     * @return the number of messages that were run.
+     */
+    public int runQueued() {
+        int count = 0;
+        Runnable runnable;
+        while ((runnable = mQueue.poll()) != null) {
+            runnable.run();
+            count++;
+        }
+        return count;
+    }
+}
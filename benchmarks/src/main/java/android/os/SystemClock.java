@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public final class SystemClock {
+
+    private SystemClock() {}
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+}
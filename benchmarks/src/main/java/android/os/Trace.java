@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class of the same name. Nothing is traced on the
+ * JVM, use a RecordingPermissionsTracer to look at the sections instead.
+ */
+public final class Trace {
+
+    private Trace() {}
+
+    public static void beginSection(String sectionName) {}
+
+    public static void endSection() {}
+
+    public static void beginAsyncSection(String methodName, int cookie) {}
+
+    public static void endAsyncSection(String methodName, int cookie) {}
+}
@@ -0,0 +1,10 @@
+package android.support.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+@Retention(RetentionPolicy.CLASS)
+public @interface NonNull {}
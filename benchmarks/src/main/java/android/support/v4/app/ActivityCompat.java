@@ -0,0 +1,32 @@
+package android.support.v4.app;
+
+import android.app.Activity;
+import android.support.v4.content.ContextCompat;
+
+/**
+ * JVM stand-in for the Android class of the same name. Requests are not
+ * shown to anyone, the last request is recorded so that a benchmark can
+ * deliver its result.
+ */
+public class ActivityCompat extends ContextCompat {
+
+    private static volatile String[] sLastPermissions;
+    private static volatile int sLastRequestCode = -1;
+
+    public static void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        sLastPermissions = permissions;
+        sLastRequestCode = requestCode;
+    }
+
+    public static boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        return false;
+    }
+
+    public static String[] getLastRequestedPermissions() {
+        return sLastPermissions;
+    }
+
+    public static int getLastRequestCode() {
+        return sLastRequestCode;
+    }
+}
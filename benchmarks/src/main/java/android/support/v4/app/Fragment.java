@@ -0,0 +1,32 @@
+package android.support.v4.app;
+
+import android.app.Activity;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public class Fragment {
+
+    private Activity mActivity;
+    private final FragmentManager mFragmentManager = new FragmentManager();
+
+    public final Activity getActivity() {
+        return mActivity;
+    }
+
+    public void setActivity(Activity activity) {
+        mActivity = activity;
+    }
+
+    public final FragmentManager getFragmentManager() {
+        return mFragmentManager;
+    }
+
+    public final void requestPermissions(String[] permissions, int requestCode) {
+        ActivityCompat.requestPermissions(mActivity, permissions, requestCode);
+    }
+
+    public boolean shouldShowRequestPermissionRationale(String permission) {
+        return false;
+    }
+}
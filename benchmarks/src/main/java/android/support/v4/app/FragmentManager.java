@@ -0,0 +1,31 @@
+package android.support.v4.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-in for the Android class of the same name.
+ */
+public class FragmentManager {
+
+    public abstract static class FragmentLifecycleCallbacks {
+
+        public void onFragmentDestroyed(FragmentManager fm, Fragment f) {}
+    }
+
+    private final List<FragmentLifecycleCallbacks> mCallbacks = new ArrayList<>();
+
+    public void registerFragmentLifecycleCallbacks(FragmentLifecycleCallbacks callback, boolean recursive) {
+        mCallbacks.add(callback);
+    }
+
+    public void unregisterFragmentLifecycleCallbacks(FragmentLifecycleCallbacks callback) {
+        mCallbacks.remove(callback);
+    }
+
+    public void destroy(Fragment fragment) {
+        for (FragmentLifecycleCallbacks callback : mCallbacks) {
+            callback.onFragmentDestroyed(this, fragment);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package android.support.v4.content;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM stand-in for the Android class of the same name. Permissions are denied
+ * unless they have been granted with {@link #setGranted(String, boolean)}, and
+ * every check is counted so that benchmarks can tell how often they reach the
+ * package manager.
+ */
+public class ContextCompat {
+
+    private static final Set<String> sGranted =
+        java.util.Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final AtomicLong sChecks = new AtomicLong();
+
+    public static void setGranted(String permission, boolean granted) {
+        if (granted) {
+            sGranted.add(permission);
+        } else {
+            sGranted.remove(permission);
+        }
+    }
+
+    public static long getCheckCount() {
+        return sChecks.get();
+    }
+
+    public static int checkSelfPermission(Context context, String permission) {
+        sChecks.incrementAndGet();
+        return sGranted.contains(permission) ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+}
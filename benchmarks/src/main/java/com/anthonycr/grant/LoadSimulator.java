@@ -0,0 +1,322 @@
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays concurrent permission checks and requests against the real permission
+ * engine running on a {@link SimulatedPlatform}, while a simulated user answers
+ * the requests and revokes permissions in the system Settings. It reports the
+ * throughput and latencies, and fails if any action never received its result, timed
+ * out without a timeout or a lost request, or a request was made while another one
+ * was showing.
+ * Run it with ./gradlew :benchmarks:simulate, options are passed as
+ * -PsimulatorArgs="--threads=8 --operations=100000".
+ * <p/>
+ * Options, with their defaults:
+ * <ul>
+ * <li>--threads=4 the number of threads making checks and requests.</li>
+ * <li>--operations=20000 the number of checks and requests each thread makes.</li>
+ * <li>--rate=0 the operations per second each thread makes, 0 for as fast as possible.</li>
+ * <li>--check-ratio=0.8 the fraction of operations that are checks rather than requests.</li>
+ * <li>--grant-probability=0.7 the probability that the user grants a permission.</li>
+ * <li>--revoke-interval-ms=5 how often the user revokes a permission in Settings, 0 for never.</li>
+ * <li>--check-latency-us=0 the time each check spends in the simulated IPC.</li>
+ * <li>--request-latency-us=200 the time the user takes to answer a request.</li>
+ * <li>--drop-probability=0 the probability that the Activity is finished while a request is
+ * showing, so that the request is never answered and the next request comes from a new Activity.</li>
+ * <li>--recreate-probability=0 the probability that the Activity is recreated for a configuration
+ * change while a request is showing, so that the next request comes from a new Activity while the
+ * request is still answered.</li>
+ * <li>--timeout-ms=0 the request timeout of the PermissionsManager, 0 for none.</li>
+ * <li>--legacy-results=false whether results are passed on without their request code, in
+ * which case the results of a request the app makes itself arrive as often as permissions are revoked.</li>
+ * <li>--seed=42 the seed of every random decision.</li>
+ * <li>--trace=false whether to record the trace sections and fail if they are not balanced.</li>
+ * </ul>
+ */
+public final class LoadSimulator {
+
+    private static final String[] PERMISSIONS = {
+        "android.permission.ACCESS_COARSE_LOCATION",
+        "android.permission.ACCESS_FINE_LOCATION",
+        "android.permission.CAMERA",
+        "android.permission.READ_CALENDAR",
+        "android.permission.READ_CONTACTS",
+        "android.permission.READ_EXTERNAL_STORAGE",
+        "android.permission.RECORD_AUDIO",
+        "android.permission.WRITE_EXTERNAL_STORAGE",
+    };
+
+    private static final String[] NO_PERMISSIONS = new String[0];
+
+    // Requested by the app itself rather than through the manager, see --legacy-results
+    private static final String[] FOREIGN_PERMISSIONS = {"android.permission.READ_SMS"};
+    private static final int[] FOREIGN_RESULTS = {PackageManager.PERMISSION_DENIED};
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private final int mThreads;
+    private final int mOperations;
+    private final int mRate;
+    private final double mCheckRatio;
+    private final long mRevokeIntervalMs;
+    private final long mSeed;
+    // Whether requests can time out, otherwise every action must be granted or denied
+    private final boolean mTimeoutsExpected;
+    private final boolean mLegacyResults;
+
+    private final SimulatedPlatform mPlatform;
+    private final PermissionsManager mManager;
+    private final HistogramPermissionsMetrics mMetrics = new HistogramPermissionsMetrics();
+    private final AtomicReference<Activity> mActivity = new AtomicReference<>(new Activity());
+    @Nullable private final RecordingPermissionsTracer mTracer;
+    private final Set<PermissionsResultAction> mOutstanding =
+        Collections.newSetFromMap(new ConcurrentHashMap<PermissionsResultAction, Boolean>());
+    private final AtomicLong mGranted = new AtomicLong();
+    private final AtomicLong mDenied = new AtomicLong();
+    private final AtomicLong mTimedOut = new AtomicLong();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mChecks = new AtomicLong();
+
+    private LoadSimulator(@NonNull Map<String, String> options) {
+        mThreads = Integer.parseInt(option(options, "threads", "4"));
+        mOperations = Integer.parseInt(option(options, "operations", "20000"));
+        mRate = Integer.parseInt(option(options, "rate", "0"));
+        mCheckRatio = Double.parseDouble(option(options, "check-ratio", "0.8"));
+        mRevokeIntervalMs = Long.parseLong(option(options, "revoke-interval-ms", "5"));
+        mSeed = Long.parseLong(option(options, "seed", "42"));
+        double grantProbability = Double.parseDouble(option(options, "grant-probability", "0.7"));
+        long checkLatencyNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(option(options, "check-latency-us", "0")));
+        long requestLatencyNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(option(options, "request-latency-us", "200")));
+        double dropProbability = Double.parseDouble(option(options, "drop-probability", "0"));
+        double recreateProbability = Double.parseDouble(option(options, "recreate-probability", "0"));
+        long timeoutMillis = Long.parseLong(option(options, "timeout-ms", "0"));
+        mTimeoutsExpected = timeoutMillis > 0 || dropProbability > 0;
+        mLegacyResults = Boolean.parseBoolean(option(options, "legacy-results", "false"));
+        mTracer = Boolean.parseBoolean(option(options, "trace", "false")) ? new RecordingPermissionsTracer() : null;
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+
+        mPlatform = new SimulatedPlatform(PERMISSIONS, SimulatedPlatform.grantWithProbability(grantProbability),
+            checkLatencyNanos, requestLatencyNanos, dropProbability, recreateProbability, mSeed);
+        mManager = new PermissionsManager(mPlatform);
+        mManager.setRequestTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        mManager.setMetrics(mMetrics);
+        PermissionsManager.setTracer(mTracer);
+        mPlatform.setResultListener(new SimulatedPlatform.ResultListener() {
+            @Override
+            @SuppressWarnings("deprecation")
+            public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] results) {
+                if (mLegacyResults) {
+                    mManager.notifyPermissionsChange(permissions, results);
+                    return;
+                }
+                mManager.notifyPermissionsChange(requestCode, permissions, results);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must look like --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.exit(new LoadSimulator(options).run() ? 0 : 1);
+    }
+
+    @NonNull
+    private static String option(@NonNull Map<String, String> options, @NonNull String name, @NonNull String value) {
+        String option = options.remove(name);
+        return option != null ? option : value;
+    }
+
+    private boolean run() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(mThreads);
+        Thread[] workers = new Thread[mThreads];
+        for (int n = 0; n < mThreads; n++) {
+            final Random random = new Random(mSeed + n + 1);
+            workers[n] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work(random);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "worker-" + n);
+        }
+        Thread settings = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                revoke(done);
+            }
+        }, "settings");
+
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        settings.start();
+        done.await();
+        long workDone = System.nanoTime();
+        settings.join();
+
+        // Every request made so far has to be answered or time out before the actions can be checked
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!mOutstanding.isEmpty() && System.nanoTime() < deadline) {
+            mPlatform.awaitIdle(1, TimeUnit.SECONDS);
+            // Opening a new screen finishes a request that was abandoned by a finished Activity
+            mManager.requestPermissionsIfNecessaryForResult(getActivity(), NO_PERMISSIONS, null);
+        }
+        mPlatform.shutdown();
+
+        double seconds = (workDone - start) / 1e9;
+        long operations = (long) mThreads * mOperations;
+        System.out.println(String.format("%d operations on %d threads in %.2fs, %.0f operations/s",
+            operations, mThreads, seconds, operations / seconds));
+        System.out.println("checks=" + mChecks + ", requests=" + mRequests
+            + ", granted=" + mGranted + ", denied=" + mDenied + ", timedOut=" + mTimedOut);
+        System.out.println("platform checks=" + mPlatform.getCheckCount()
+            + ", platform requests=" + mPlatform.getRequestCount()
+            + ", dropped requests=" + mPlatform.getDroppedCount()
+            + ", recreated activities=" + mPlatform.getRecreatedCount()
+            + ", concurrent requests=" + mPlatform.getConcurrentCount()
+            + ", unasked requests=" + mPlatform.getUnaskedCount());
+        System.out.println(mMetrics);
+        if (mTracer != null) {
+            System.out.print(mTracer);
+            List<String> errors = mTracer.getErrors();
+            for (String error : errors) {
+                System.out.println(error);
+            }
+            if (!errors.isEmpty()) {
+                return false;
+            }
+        }
+        boolean passed = true;
+        if (mPlatform.getConcurrentCount() > 0) {
+            System.out.println(mPlatform.getConcurrentCount() + " requests were made while another one was showing");
+            passed = false;
+        }
+        if (!mOutstanding.isEmpty()) {
+            System.out.println(mOutstanding.size() + " actions never received their result");
+            passed = false;
+        }
+        if (!mTimeoutsExpected && mTimedOut.get() > 0) {
+            System.out.println(mTimedOut + " actions timed out although no request was lost");
+            passed = false;
+        }
+        return passed;
+    }
+
+    /**
+     * @return the Activity that is showing, which is replaced once it has been finished or recreated.
+     */
+    @NonNull
+    private Activity getActivity() {
+        Activity activity = mActivity.get();
+        if (activity.isFinishing() || activity.isChangingConfigurations()) {
+            Activity next = new Activity();
+            activity = mActivity.compareAndSet(activity, next) ? next : mActivity.get();
+        }
+        return activity;
+    }
+
+    private void work(@NonNull Random random) {
+        long interval = mRate > 0 ? TimeUnit.SECONDS.toNanos(1) / mRate : 0;
+        long next = System.nanoTime();
+        for (int n = 0; n < mOperations; n++) {
+            if (interval > 0) {
+                next += interval;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            if (random.nextDouble() < mCheckRatio) {
+                mChecks.incrementAndGet();
+                mManager.hasPermission(getActivity(), PERMISSIONS[random.nextInt(PERMISSIONS.length)]);
+            } else {
+                mRequests.incrementAndGet();
+                String[] permissions = new String[1 + random.nextInt(3)];
+                for (int p = 0; p < permissions.length; p++) {
+                    permissions[p] = PERMISSIONS[random.nextInt(PERMISSIONS.length)];
+                }
+                mManager.requestPermissionsIfNecessaryForResult(getActivity(), permissions, newAction());
+            }
+        }
+    }
+
+    private void revoke(@NonNull CountDownLatch done) {
+        if (mRevokeIntervalMs <= 0) {
+            return;
+        }
+        Random random = new Random(mSeed);
+        try {
+            while (!done.await(mRevokeIntervalMs, TimeUnit.MILLISECONDS)) {
+                mPlatform.setGranted(PERMISSIONS[random.nextInt(PERMISSIONS.length)], false);
+                // The cache is invalidated when the app returns from the Settings
+                mManager.invalidatePermissionsCache();
+                if (mLegacyResults) {
+                    // The result of a request the app made itself, which the manager cannot tell apart
+                    mPlatform.deliverResult(0, FOREIGN_PERMISSIONS, FOREIGN_RESULTS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @NonNull
+    private PermissionsResultAction newAction() {
+        PermissionsResultAction action = new PermissionsResultAction(DIRECT) {
+            @Override
+            public void onGranted() {
+                mGranted.incrementAndGet();
+                mOutstanding.remove(this);
+            }
+
+            @Override
+            public void onDenied(String permission) {
+                mDenied.incrementAndGet();
+                mOutstanding.remove(this);
+            }
+
+            @Override
+            public void onTimedOut(String permission) {
+                mTimedOut.incrementAndGet();
+                mOutstanding.remove(this);
+            }
+        };
+        // Held here until its result arrives, the engine only keeps a weak reference
+        mOutstanding.add(action);
+        return action;
+    }
+}
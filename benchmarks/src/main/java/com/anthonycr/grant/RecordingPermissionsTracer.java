@@ -0,0 +1,121 @@
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link PermissionsTracer} that runs on the JVM and records the structure of the
+ * sections instead of writing them to a system trace. Each section is counted under its
+ * path, the names of the sections it is nested in joined with " > ", so the nesting can
+ * be checked as well as the number of sections. Sections that end without having begun,
+ * async sections that end with an unknown cookie and sections that are still open are
+ * reported as errors.
+ */
+final class RecordingPermissionsTracer implements PermissionsTracer {
+
+    private final Map<Thread, Deque<String>> mStacks = new ConcurrentHashMap<>();
+    private final Map<Integer, String> mOpenAsyncSections = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private final Map<String, Integer> mSectionCounts = new TreeMap<>();
+    private final List<String> mErrors = new ArrayList<>();
+
+    @Override
+    public void beginSection(@NonNull String name) {
+        Deque<String> stack = getStack();
+        String path = stack.isEmpty() ? name : stack.peek() + " > " + name;
+        stack.push(path);
+        count(path);
+    }
+
+    @Override
+    public void endSection() {
+        if (getStack().poll() == null) {
+            error("Section ended on " + Thread.currentThread().getName() + " without having begun");
+        }
+    }
+
+    @Override
+    public void beginAsyncSection(@NonNull String name, int cookie) {
+        if (mOpenAsyncSections.put(cookie, name) != null) {
+            error("Async section " + name + " began with cookie " + cookie + " which is already open");
+        }
+        count(name + " (async)");
+    }
+
+    @Override
+    public void endAsyncSection(@NonNull String name, int cookie) {
+        if (!name.equals(mOpenAsyncSections.remove(cookie))) {
+            error("Async section " + name + " ended with unknown cookie " + cookie);
+        }
+    }
+
+    /**
+     * @return the number of sections that began, by their path.
+     */
+    @NonNull
+    synchronized Map<String, Integer> getSectionCounts() {
+        return new TreeMap<>(mSectionCounts);
+    }
+
+    /**
+     * Returns the errors so far, followed by the sections that are still open. This
+     * should only be called once the work being traced has finished.
+     *
+     * @return the errors, or an empty list if the sections were balanced.
+     */
+    @NonNull
+    List<String> getErrors() {
+        List<String> errors;
+        synchronized (this) {
+            errors = new ArrayList<>(mErrors);
+        }
+        for (Map.Entry<Thread, Deque<String>> entry : mStacks.entrySet()) {
+            for (String path : entry.getValue()) {
+                errors.add("Section " + path + " is still open on " + entry.getKey().getName());
+            }
+        }
+        for (Map.Entry<Integer, String> entry : mOpenAsyncSections.entrySet()) {
+            errors.add("Async section " + entry.getValue() + " with cookie " + entry.getKey() + " is still open");
+        }
+        return Collections.unmodifiableList(errors);
+    }
+
+    @NonNull
+    private Deque<String> getStack() {
+        Thread thread = Thread.currentThread();
+        Deque<String> stack = mStacks.get(thread);
+        if (stack == null) {
+            // Only the current thread adds its own stack, so there is no race
+            stack = new ArrayDeque<>();
+            mStacks.put(thread, stack);
+        }
+        return stack;
+    }
+
+    private synchronized void count(@NonNull String path) {
+        Integer count = mSectionCounts.get(path);
+        mSectionCounts.put(path, count == null ? 1 : count + 1);
+    }
+
+    private synchronized void error(@NonNull String error) {
+        mErrors.add(error);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : getSectionCounts().entrySet()) {
+            builder.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        return builder.toString();
+    }
+}
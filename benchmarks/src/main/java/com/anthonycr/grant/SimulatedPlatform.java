@@ -0,0 +1,413 @@
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Platform} that runs on the JVM. Permissions start out denied, and
+ * each request is answered by a simulated user after the configured latency,
+ * granting each permission according to the {@link GrantPolicy}. The results
+ * are delivered to the {@link ResultListener} on a single thread, in the order
+ * the requests were made, the way onRequestPermissionsResult() is called on
+ * the main thread. Like Android 11, a permission that is denied twice is not
+ * asked for again, and requests for it are denied without asking the user.
+ * The user answers once for each permission group in a request, a permission
+ * whose group has been granted is granted without asking, and before Android O
+ * granting a permission grants the rest of its group as well. Like the system,
+ * only one request is shown at a time, and a request made while another one is
+ * showing is answered with empty results.
+ * <p/>
+ * The SDK version is the one reported by {@link Build.VERSION}, which on the
+ * JVM can be set with the android.sdk system property.
+ */
+final class SimulatedPlatform implements Platform {
+
+    // Build.VERSION_CODES.O, which is newer than the compile SDK
+    private static final int ANDROID_O = 26;
+
+    /**
+     * Decides whether the simulated user grants a permission.
+     */
+    interface GrantPolicy {
+        boolean grant(@NonNull String permission, @NonNull Random random);
+    }
+
+    /**
+     * Receives the results of the requests, see
+     * {@link PermissionsManager#notifyPermissionsChange(int, String[], int[])}.
+     */
+    interface ResultListener {
+        void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] results);
+    }
+
+    static final GrantPolicy GRANT_ALL = new GrantPolicy() {
+        @Override
+        public boolean grant(@NonNull String permission, @NonNull Random random) {
+            return true;
+        }
+    };
+
+    static final GrantPolicy DENY_ALL = new GrantPolicy() {
+        @Override
+        public boolean grant(@NonNull String permission, @NonNull Random random) {
+            return false;
+        }
+    };
+
+    @NonNull
+    static GrantPolicy grantWithProbability(final double probability) {
+        return new GrantPolicy() {
+            @Override
+            public boolean grant(@NonNull String permission, @NonNull Random random) {
+                return random.nextDouble() < probability;
+            }
+        };
+    }
+
+    private final Set<String> mGranted =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // The number of times each permission has been denied since it was last granted
+    private final ConcurrentHashMap<String, Integer> mDenials = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService mUser = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, "simulated-user");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // Only used on the simulated user thread, so the answers only depend on the seed
+    private final Random mRandom;
+    @NonNull private final String[] mDeclaredPermissions;
+    @NonNull private final GrantPolicy mPolicy;
+    private final long mCheckLatencyNanos;
+    private final long mRequestLatencyNanos;
+    private final double mDropProbability;
+    private final double mRecreateProbability;
+    @Nullable private volatile ResultListener mListener;
+    // Whether a request is showing, which is set by the requests and cleared on the user thread
+    private final AtomicBoolean mShowing = new AtomicBoolean(false);
+    private final ConcurrentHashMap<Runnable, ScheduledFuture<?>> mDelayed = new ConcurrentHashMap<>();
+
+    private final AtomicLong mChecks = new AtomicLong();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mUnasked = new AtomicLong();
+    private final AtomicLong mConcurrent = new AtomicLong();
+    private final AtomicLong mRecreated = new AtomicLong();
+
+    /**
+     * @param declaredPermissions the permissions declared in the simulated manifest.
+     * @param policy              decides which permissions the simulated user grants.
+     * @param checkLatencyNanos   the time each permission check spins for, to stand in for the IPC.
+     * @param requestLatencyNanos the time the simulated user takes to answer each request.
+     * @param dropProbability     the probability that the Activity is finished while a request
+     *                            is showing, in which case the request is never answered.
+     * @param recreateProbability the probability that the Activity is recreated for a
+     *                            configuration change while a request is showing, in which
+     *                            case the request is still answered.
+     * @param seed                the seed of the simulated user's decisions.
+     */
+    SimulatedPlatform(@NonNull String[] declaredPermissions,
+                      @NonNull GrantPolicy policy,
+                      long checkLatencyNanos,
+                      long requestLatencyNanos,
+                      double dropProbability,
+                      double recreateProbability,
+                      long seed) {
+        mDeclaredPermissions = declaredPermissions.clone();
+        mPolicy = policy;
+        mCheckLatencyNanos = checkLatencyNanos;
+        mRequestLatencyNanos = requestLatencyNanos;
+        mDropProbability = dropProbability;
+        mRecreateProbability = recreateProbability;
+        mRandom = new Random(seed);
+    }
+
+    void setResultListener(@Nullable ResultListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Changes the grant state of a permission, the way the user can in the system Settings.
+     */
+    void setGranted(@NonNull String permission, boolean granted) {
+        if (granted) {
+            mGranted.add(permission);
+            mDenials.remove(permission);
+        } else if (mGranted.remove(permission)) {
+            // Revoking in Settings means the user is asked again, with a rationale
+            mDenials.put(permission, 1);
+        }
+    }
+
+    private boolean isGroupGranted(@NonNull String permission) {
+        int group = groupOf(permission);
+        if (group == PermissionGroups.NO_GROUP) {
+            return false;
+        }
+        for (String declared : mDeclaredPermissions) {
+            if (groupOf(declared) == group && mGranted.contains(declared)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int groupOf(@NonNull String permission) {
+        int id = PlatformPermissions.idOf(permission);
+        return id != PlatformPermissions.NO_ID ? PermissionGroups.groupOf(id) : PermissionGroups.NO_GROUP;
+    }
+
+    private boolean isDeniedPermanently(@NonNull String permission) {
+        Integer denials = mDenials.get(permission);
+        return denials != null && denials >= 2;
+    }
+
+    long getCheckCount() {
+        return mChecks.get();
+    }
+
+    long getRequestCount() {
+        return mRequests.get();
+    }
+
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return the number of requests that were made while another request was showing,
+     * and were answered with empty results.
+     */
+    long getConcurrentCount() {
+        return mConcurrent.get();
+    }
+
+    long getRecreatedCount() {
+        return mRecreated.get();
+    }
+
+    /**
+     * @return the number of requests that were answered without asking the user, because
+     * every permission in them had been denied permanently or its group had been granted.
+     */
+    long getUnaskedCount() {
+        return mUnasked.get();
+    }
+
+    /**
+     * Waits for the simulated user to answer the requests made so far.
+     */
+    boolean awaitIdle(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mUser.schedule(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, mRequestLatencyNanos, TimeUnit.NANOSECONDS);
+        return latch.await(timeout, unit);
+    }
+
+    void shutdown() {
+        mUser.shutdownNow();
+    }
+
+    @Override
+    public int getSdkInt() {
+        return Build.VERSION.SDK_INT;
+    }
+
+    @Override
+    public int checkSelfPermission(@NonNull Context context, @NonNull String permission) {
+        mChecks.incrementAndGet();
+        if (mCheckLatencyNanos > 0) {
+            long end = System.nanoTime() + mCheckLatencyNanos;
+            while (System.nanoTime() < end) {
+                // Spin rather than sleep, a binder call keeps the calling thread busy
+            }
+        }
+        return mGranted.contains(permission) ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+
+    @Override
+    public void requestPermissions(@NonNull final Activity activity, @NonNull final String[] permissions, final int requestCode) {
+        mRequests.incrementAndGet();
+        if (!mShowing.compareAndSet(false, true)) {
+            // The system only shows one request at a time and answers the others right away
+            mConcurrent.incrementAndGet();
+            deliverResult(requestCode, new String[0], new int[0]);
+            return;
+        }
+        boolean ask = false;
+        for (String permission : permissions) {
+            ask |= !mGranted.contains(permission) && !isDeniedPermanently(permission) && !isGroupGranted(permission);
+        }
+        if (!ask) {
+            mUnasked.incrementAndGet();
+        }
+        if (ask && mRecreateProbability > 0) {
+            mUser.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mRandom.nextDouble() < mRecreateProbability) {
+                        // Rotated while the dialog is showing, the result goes to the new Activity
+                        mRecreated.incrementAndGet();
+                        activity.recreate();
+                    }
+                }
+            }, mRequestLatencyNanos / 2, TimeUnit.NANOSECONDS);
+        }
+        mUser.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mDropProbability > 0 && mRandom.nextDouble() < mDropProbability) {
+                    // The dialog goes away with the Activity
+                    mDropped.incrementAndGet();
+                    activity.finish();
+                    mShowing.set(false);
+                    return;
+                }
+                int[] results = new int[permissions.length];
+                Map<Integer, Boolean> answers = new HashMap<>();
+                for (int n = 0; n < permissions.length; n++) {
+                    String permission = permissions[n];
+                    boolean granted = mGranted.contains(permission) || isGroupGranted(permission);
+                    if (!granted && !isDeniedPermanently(permission)) {
+                        int group = groupOf(permission);
+                        Boolean answer = group != PermissionGroups.NO_GROUP ? answers.get(group) : null;
+                        if (answer == null) {
+                            answer = mPolicy.grant(permission, mRandom);
+                            answers.put(group, answer);
+                        }
+                        granted = answer;
+                    }
+                    if (granted) {
+                        grant(permission);
+                    } else {
+                        Integer denials = mDenials.get(permission);
+                        mDenials.put(permission, denials == null ? 1 : denials + 1);
+                    }
+                    results[n] = granted ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+                }
+                // Closed before the result is delivered, which may make the next request
+                mShowing.set(false);
+                ResultListener listener = mListener;
+                if (listener != null) {
+                    listener.onRequestPermissionsResult(requestCode, permissions, results);
+                }
+            }
+        }, ask ? mRequestLatencyNanos : 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Delivers a result that was not requested through this platform, e.g. of a request
+     * the app made itself, on the thread the results are delivered on.
+     */
+    void deliverResult(final int requestCode, @NonNull final String[] permissions, @NonNull final int[] results) {
+        mUser.execute(new Runnable() {
+            @Override
+            public void run() {
+                ResultListener listener = mListener;
+                if (listener != null) {
+                    listener.onRequestPermissionsResult(requestCode, permissions, results);
+                }
+            }
+        });
+    }
+
+    private void grant(@NonNull String permission) {
+        setGranted(permission, true);
+        int group = groupOf(permission);
+        if (group != PermissionGroups.NO_GROUP && getSdkInt() < ANDROID_O) {
+            for (String declared : mDeclaredPermissions) {
+                if (groupOf(declared) == group) {
+                    setGranted(declared, true);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void requestPermissions(@NonNull Fragment fragment, @NonNull String[] permissions, int requestCode) {
+        requestPermissions(fragment.getActivity(), permissions, requestCode);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(@NonNull Activity activity, @NonNull String permission) {
+        Integer denials = mDenials.get(permission);
+        return denials != null && denials == 1;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(@NonNull Fragment fragment, @NonNull String permission) {
+        return shouldShowRequestPermissionRationale(fragment.getActivity(), permission);
+    }
+
+    @NonNull
+    @Override
+    public PackageInfo getPackageInfo(@NonNull Context context, @NonNull String packageName, int flags) {
+        PackageInfo info = new PackageInfo();
+        info.packageName = packageName;
+        info.versionCode = 1;
+        info.requestedPermissions = mDeclaredPermissions.clone();
+        return info;
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @Override
+    public void postDelayed(@NonNull final Runnable task, long delayMillis) {
+        mDelayed.put(task, mUser.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mDelayed.remove(task);
+                task.run();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void removeCallbacks(@NonNull Runnable task) {
+        ScheduledFuture<?> future = mDelayed.remove(task);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    @Override
+    public void logDebug(@NonNull String tag, @NonNull String message) {}
+
+    @Override
+    public void logError(@NonNull String tag, @NonNull String message, @Nullable Throwable throwable) {
+        System.err.println(tag + ": " + message);
+        if (throwable != null) {
+            throwable.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+
+/**
+ * A {@link PermissionsResultAction} that waits for the result of every permission,
+ * rather than stopping at the first denial, and completes a {@link PermissionsFuture}
+ * with all of them.
+ */
+final class AggregateAction extends PermissionsResultAction {
+
+    @NonNull private final PermissionsFuture mFuture;
+    @NonNull private final LinkedHashMap<String, Permissions> mResults;
+    private int mRemaining;
+
+    AggregateAction(@NonNull PermissionsFuture future, @NonNull String[] permissions) {
+        super(null, null);
+        mFuture = future;
+        mResults = new LinkedHashMap<>(permissions.length);
+        for (String permission : permissions) {
+            mResults.put(permission, null);
+        }
+        mRemaining = mResults.size();
+        if (mRemaining == 0) {
+            mFuture.complete(new PermissionResult(mResults));
+        }
+    }
+
+    @Override
+    boolean handleResult(int id, @NonNull String permission, Permissions result) {
+        if (!mResults.containsKey(permission) || mResults.get(permission) != null) {
+            return mRemaining == 0;
+        }
+        mResults.put(permission, result);
+        if (--mRemaining == 0) {
+            mFuture.complete(new PermissionResult(new LinkedHashMap<>(mResults)));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onGranted() {}
+
+    @Override
+    public void onDenied(String permission) {}
+}
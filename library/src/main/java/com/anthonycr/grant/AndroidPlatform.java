@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+
+/**
+ * The {@link Platform} backed by the Android framework and support library.
+ */
+final class AndroidPlatform implements Platform {
+
+    static final AndroidPlatform INSTANCE = new AndroidPlatform();
+
+    @NonNull private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private AndroidPlatform() {}
+
+    @Override
+    public int getSdkInt() {
+        return Build.VERSION.SDK_INT;
+    }
+
+    @Override
+    public int checkSelfPermission(@NonNull Context context, @NonNull String permission) {
+        return ActivityCompat.checkSelfPermission(context, permission);
+    }
+
+    @Override
+    public void requestPermissions(@NonNull Activity activity, @NonNull String[] permissions, int requestCode) {
+        ActivityCompat.requestPermissions(activity, permissions, requestCode);
+    }
+
+    @Override
+    public void requestPermissions(@NonNull Fragment fragment, @NonNull String[] permissions, int requestCode) {
+        fragment.requestPermissions(permissions, requestCode);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(@NonNull Activity activity, @NonNull String permission) {
+        return ActivityCompat.shouldShowRequestPermissionRationale(activity, permission);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(@NonNull Fragment fragment, @NonNull String permission) {
+        return fragment.shouldShowRequestPermissionRationale(permission);
+    }
+
+    @NonNull
+    @Override
+    public PackageInfo getPackageInfo(@NonNull Context context, @NonNull String packageName, int flags)
+        throws PackageManager.NameNotFoundException {
+        return context.getPackageManager().getPackageInfo(packageName, flags);
+    }
+
+    @Override
+    public long getUptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void postDelayed(@NonNull Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(@NonNull Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+
+    @Override
+    public void logDebug(@NonNull String tag, @NonNull String message) {
+        Log.d(tag, message);
+    }
+
+    @Override
+    public void logError(@NonNull String tag, @NonNull String message, @Nullable Throwable throwable) {
+        Log.e(tag, message, throwable);
+    }
+}
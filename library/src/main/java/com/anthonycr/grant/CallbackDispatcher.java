@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Delivers {@link PermissionsResultAction} callbacks on a Looper. All callbacks
+ * queued before the Looper gets around to running them are delivered together
+ * in a single message, in the order they were queued, so one permissions result
+ * that completes many actions only posts one message. The queued callbacks are
+ * pooled and reused rather than allocating a Runnable per callback.
+ * <p/>
+ * There is one dispatcher per Looper at a time, which lives as long as an action
+ * or a queued batch still uses it, so that the Loopers of threads that have quit
+ * are not kept alive.
+ */
+final class CallbackDispatcher implements Runnable {
+
+    private static final int TYPE_GRANTED = 0;
+    private static final int TYPE_DENIED = 1;
+    private static final int TYPE_TIMED_OUT = 2;
+    private static final int TYPE_DENIED_PERMANENTLY = 3;
+
+    private static final int MAX_POOL_SIZE = 32;
+
+    // The dispatchers are weak as well, since their Handler would keep the Looper reachable
+    private static final Map<Looper, WeakReference<CallbackDispatcher>> sDispatchers = new WeakHashMap<>(1);
+
+    /**
+     * @param looper the Looper the callbacks should be delivered on.
+     * @return the dispatcher for the Looper.
+     */
+    @NonNull
+    static CallbackDispatcher forLooper(@NonNull Looper looper) {
+        synchronized (sDispatchers) {
+            WeakReference<CallbackDispatcher> reference = sDispatchers.get(looper);
+            CallbackDispatcher dispatcher = reference != null ? reference.get() : null;
+            if (dispatcher == null) {
+                dispatcher = new CallbackDispatcher(looper);
+                sDispatchers.put(looper, new WeakReference<>(dispatcher));
+            }
+            return dispatcher;
+        }
+    }
+
+    private static final class Callback {
+        int type;
+        PermissionsResultAction action;
+        String permission;
+        Callback next;
+    }
+
+    @NonNull private final Handler mHandler;
+
+    // Guarded by this
+    @Nullable private Callback mHead;
+    @Nullable private Callback mTail;
+    @Nullable private Callback mPool;
+    private int mPoolSize = 0;
+    private boolean mScheduled = false;
+
+    private CallbackDispatcher(@NonNull Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Queues a call to {@link PermissionsResultAction#onGranted()}.
+     *
+     * @param action the action to notify.
+     */
+    void dispatchGranted(@NonNull PermissionsResultAction action) {
+        enqueue(TYPE_GRANTED, action, null);
+    }
+
+    /**
+     * Queues a call to {@link PermissionsResultAction#onDenied(String)}.
+     *
+     * @param action     the action to notify.
+     * @param permission the permission that was denied.
+     */
+    void dispatchDenied(@NonNull PermissionsResultAction action, @NonNull String permission) {
+        enqueue(TYPE_DENIED, action, permission);
+    }
+
+    /**
+     * Queues a call to {@link PermissionsResultAction#onTimedOut(String)}.
+     *
+     * @param action     the action to notify.
+     * @param permission the permission whose result did not arrive in time.
+     */
+    void dispatchTimedOut(@NonNull PermissionsResultAction action, @NonNull String permission) {
+        enqueue(TYPE_TIMED_OUT, action, permission);
+    }
+
+    /**
+     * Queues a call to {@link PermissionsResultAction#onDeniedPermanently(String)}.
+     *
+     * @param action     the action to notify.
+     * @param permission the permission that was denied permanently.
+     */
+    void dispatchDeniedPermanently(@NonNull PermissionsResultAction action, @NonNull String permission) {
+        enqueue(TYPE_DENIED_PERMANENTLY, action, permission);
+    }
+
+    private synchronized void enqueue(int type,
+                                      @NonNull PermissionsResultAction action,
+                                      @Nullable String permission) {
+        Callback callback = mPool;
+        if (callback != null) {
+            mPool = callback.next;
+            mPoolSize--;
+            callback.next = null;
+        } else {
+            callback = new Callback();
+        }
+        callback.type = type;
+        callback.action = action;
+        callback.permission = permission;
+        if (mTail == null) {
+            mHead = callback;
+        } else {
+            mTail.next = callback;
+        }
+        mTail = callback;
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.post(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        Callback batch;
+        synchronized (this) {
+            batch = mHead;
+            mHead = null;
+            mTail = null;
+            mScheduled = false;
+        }
+        PermissionsTracer tracer = Tracing.sTracer;
+        tracer.beginSection(Tracing.DISPATCH_CALLBACKS);
+        try {
+            for (Callback callback = batch; callback != null; callback = callback.next) {
+                if (callback.type == TYPE_GRANTED) {
+                    callback.action.onGranted();
+                } else if (callback.type == TYPE_TIMED_OUT) {
+                    callback.action.onTimedOut(callback.permission);
+                } else if (callback.type == TYPE_DENIED_PERMANENTLY) {
+                    callback.action.onDeniedPermanently(callback.permission);
+                } else {
+                    callback.action.onDenied(callback.permission);
+                }
+            }
+        } finally {
+            tracer.endSection();
+        }
+        recycle(batch);
+    }
+
+    private synchronized void recycle(@Nullable Callback batch) {
+        while (batch != null && mPoolSize < MAX_POOL_SIZE) {
+            Callback next = batch.next;
+            batch.action = null;
+            batch.permission = null;
+            batch.next = mPool;
+            mPool = batch;
+            mPoolSize++;
+            batch = next;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Tracks the number of started Activities in order to tell when the
+ * application returns to the foreground. This is the point at which
+ * permissions may have been changed by the user in the system Settings.
+ * The tracker may be registered while an Activity is already started, so the
+ * Activity it is registered from is counted as started until its own
+ * lifecycle tells otherwise.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+final class ForegroundTracker implements Application.ActivityLifecycleCallbacks {
+
+    interface Listener {
+
+        /**
+         * Called on the main thread when the first Activity
+         * of the application is started.
+         *
+         * @param activity the Activity that was started.
+         */
+        void onForeground(@NonNull Activity activity);
+    }
+
+    @NonNull private final Listener mListener;
+    private int mStartedCount;
+    // The Activity that is counted as started without its start having been seen
+    @Nullable private WeakReference<Activity> mAssumedStarted;
+
+    /**
+     * @param listener the listener to notify when the application returns to the foreground.
+     * @param activity the Activity the tracker is registered from, which is assumed to be
+     *                 started, or null if it is registered before any Activity is started.
+     */
+    ForegroundTracker(@NonNull Listener listener, @Nullable Activity activity) {
+        mListener = listener;
+        if (activity != null) {
+            mAssumedStarted = new WeakReference<>(activity);
+            mStartedCount = 1;
+        }
+    }
+
+    /**
+     * Stops counting the Activity as started if it was only assumed to be.
+     *
+     * @param activity the Activity whose lifecycle has changed.
+     */
+    private void forgetAssumed(@NonNull Activity activity) {
+        if (mAssumedStarted != null && mAssumedStarted.get() == activity) {
+            mAssumedStarted = null;
+            if (mStartedCount > 0) {
+                mStartedCount--;
+            }
+        }
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        // The assumed Activity was not started after all, e.g. it was still being created
+        forgetAssumed(activity);
+        if (mStartedCount++ == 0) {
+            mListener.onForeground(activity);
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        if (mAssumedStarted != null && mAssumedStarted.get() == activity) {
+            forgetAssumed(activity);
+        } else if (mStartedCount > 0) {
+            mStartedCount--;
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityResumed(Activity activity) {}
+
+    @Override
+    public void onActivityPaused(Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        // An Activity that was stopped before the tracker was registered is never started or stopped again
+        forgetAssumed(activity);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A cache of the grant state of each platform permission, indexed by the
+ * permission's id in the {@link PermissionTable}. The cache only holds the
+ * result of previous checks, it is the job of the PermissionsManager to keep
+ * it up to date when permissions change and to invalidate it when the state
+ * may have changed outside of the application, e.g. in the system Settings.
+ * <p/>
+ * The states are held in an immutable array that is replaced atomically on
+ * every change, so reading the cache never takes a lock. Changes are rare,
+ * so copying the small array on write is cheaper than synchronizing reads.
+ */
+final class GrantStateCache {
+
+    static final int UNKNOWN = 0;
+    static final int GRANTED = 1;
+    static final int DENIED = 2;
+
+    private final AtomicReference<byte[]> mStates = new AtomicReference<>(new byte[PlatformPermissions.size()]);
+
+    /**
+     * Returns the cached state of the permission. Lookups are not counted here, so
+     * that reading the cache never writes to shared memory, the metrics count them.
+     *
+     * @param id the id of the permission.
+     * @return {@link #GRANTED}, {@link #DENIED} or {@link #UNKNOWN} if
+     * the permission is not cached.
+     */
+    int get(int id) {
+        return mStates.get()[id];
+    }
+
+    /**
+     * Stores the state of the permission.
+     *
+     * @param id      the id of the permission.
+     * @param granted whether the permission is granted.
+     */
+    void put(int id, boolean granted) {
+        byte state = (byte) (granted ? GRANTED : DENIED);
+        while (true) {
+            byte[] current = mStates.get();
+            if (current[id] == state) {
+                return;
+            }
+            byte[] updated = current.clone();
+            updated[id] = state;
+            if (mStates.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the current states indexed by id.
+     * The array is never modified once published, so it can be shared.
+     */
+    byte[] getStates() {
+        return mStates.get();
+    }
+
+    /**
+     * Forgets every cached state, forcing the next lookup
+     * of each permission to query the system.
+     */
+    void invalidate() {
+        mStates.set(new byte[PlatformPermissions.size()]);
+    }
+}
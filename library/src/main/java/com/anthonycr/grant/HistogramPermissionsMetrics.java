@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link PermissionsMetrics} that keeps counters and latency histograms in memory.
+ * Recording never locks or allocates, so it is cheap enough to leave enabled in
+ * production builds and read from a debug screen or upload periodically.
+ */
+public class HistogramPermissionsMetrics implements PermissionsMetrics {
+
+    private final Histogram mRequestLatency = new Histogram();
+    private final Histogram mDispatchTime = new Histogram();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mChecks = new AtomicLong();
+    private final AtomicLong mCacheHits = new AtomicLong();
+    private final AtomicInteger mPendingActions = new AtomicInteger();
+    private final AtomicInteger mMaxPendingActions = new AtomicInteger();
+
+    @Override
+    public void onRequestStarted(int requestCode, @NonNull String[] permissions) {
+        mRequests.incrementAndGet();
+    }
+
+    @Override
+    public void onRequestFinished(int requestCode, long latencyNanos) {
+        mRequestLatency.record(latencyNanos);
+    }
+
+    @Override
+    public void onPermissionChecked(@NonNull String permission, boolean cached) {
+        mChecks.incrementAndGet();
+        if (cached) {
+            mCacheHits.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onResultsDispatched(int resultCount, long durationNanos) {
+        mDispatchTime.record(durationNanos);
+    }
+
+    @Override
+    public void onPendingActionsChanged(int pendingActions) {
+        mPendingActions.set(pendingActions);
+        int max;
+        do {
+            max = mMaxPendingActions.get();
+        } while (pendingActions > max && !mMaxPendingActions.compareAndSet(max, pendingActions));
+    }
+
+    /**
+     * @return the time from a request being shown to its result being received.
+     */
+    @NonNull
+    public Histogram getRequestLatency() {
+        return mRequestLatency;
+    }
+
+    /**
+     * @return the time it took to dispatch the results of a request to the pending actions.
+     */
+    @NonNull
+    public Histogram getDispatchTime() {
+        return mDispatchTime;
+    }
+
+    /**
+     * @return the number of permissions requests that have been shown.
+     */
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return the number of times the grant state of a permission has been checked.
+     */
+    public long getCheckCount() {
+        return mChecks.get();
+    }
+
+    /**
+     * @return the number of checks that were answered from the cache.
+     */
+    public long getCacheHitCount() {
+        return mCacheHits.get();
+    }
+
+    /**
+     * @return the number of actions currently waiting on a result.
+     */
+    public int getPendingActionCount() {
+        return mPendingActions.get();
+    }
+
+    /**
+     * @return the largest number of actions that have been waiting on a result at once.
+     */
+    public int getMaxPendingActionCount() {
+        return mMaxPendingActions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + getRequestCount()
+            + ", checks=" + getCheckCount()
+            + ", cacheHits=" + getCacheHitCount()
+            + ", pendingActions=" + getPendingActionCount()
+            + ", maxPendingActions=" + getMaxPendingActionCount()
+            + ", requestLatency={" + mRequestLatency + '}'
+            + ", dispatchTime={" + mDispatchTime + '}';
+    }
+
+    /**
+     * A histogram of durations in nanoseconds. Each bucket holds the durations between
+     * two consecutive powers of two, so percentiles are reported as the upper bound of
+     * their bucket and are at most twice the actual duration.
+     */
+    public static final class Histogram {
+
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotal = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram() {}
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            // Bucket n holds the durations that need n bits, so 0 is in bucket 0
+            mBuckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+            mCount.incrementAndGet();
+            mTotal.addAndGet(nanos);
+            long max;
+            do {
+                max = mMax.get();
+            } while (nanos > max && !mMax.compareAndSet(max, nanos));
+        }
+
+        /**
+         * @return the number of durations recorded.
+         */
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * @return the mean duration in nanoseconds, or 0 if nothing has been recorded.
+         */
+        public long getMeanNanos() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mTotal.get() / count;
+        }
+
+        /**
+         * @return the longest duration recorded in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return mMax.get();
+        }
+
+        /**
+         * @param percentile the percentile to get, between 0 and 100.
+         * @return the upper bound in nanoseconds of the bucket that holds the percentile,
+         * or 0 if nothing has been recorded.
+         */
+        public long getPercentileNanos(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(bucket), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount()
+                + ", meanNanos=" + getMeanNanos()
+                + ", p50Nanos=" + getPercentileNanos(50)
+                + ", p99Nanos=" + getPercentileNanos(99)
+                + ", maxNanos=" + getMaxNanos();
+        }
+    }
+}
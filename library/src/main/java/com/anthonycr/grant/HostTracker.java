@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+/**
+ * Tells when the Activities and Fragments that scoped PermissionsManager
+ * instances are bound to are destroyed, so that their scopes can be dropped.
+ * One tracker is registered with the application for Activities, and one with
+ * each FragmentManager for the Fragments it manages.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+final class HostTracker extends FragmentManager.FragmentLifecycleCallbacks
+    implements Application.ActivityLifecycleCallbacks {
+
+    interface Listener {
+
+        /**
+         * Called on the main thread when an Activity or Fragment is destroyed.
+         *
+         * @param host the Activity or Fragment that was destroyed.
+         */
+        void onHostDestroyed(@NonNull Object host);
+    }
+
+    @NonNull private final Listener mListener;
+
+    HostTracker(@NonNull Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+        mListener.onHostDestroyed(activity);
+    }
+
+    @Override
+    public void onFragmentDestroyed(FragmentManager fm, Fragment f) {
+        mListener.onHostDestroyed(f);
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityStarted(Activity activity) {}
+
+    @Override
+    public void onActivityResumed(Activity activity) {}
+
+    @Override
+    public void onActivityPaused(Activity activity) {}
+
+    @Override
+    public void onActivityStopped(Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+}
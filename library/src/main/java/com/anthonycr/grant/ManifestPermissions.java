@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+
+/**
+ * An immutable index of the permissions declared in an application manifest.
+ * The permissions are available both as strings and as ids from the
+ * {@link PermissionTable}, where permissions that are not platform
+ * permissions have the id {@link PlatformPermissions#NO_ID}.
+ * <p/>
+ * The declared permissions of a package cannot change while its process is
+ * alive, since updating the package restarts the process, so an index only
+ * needs to be read once. The arrays are shared and must not be modified.
+ */
+final class ManifestPermissions {
+
+    private static final String TAG = ManifestPermissions.class.getSimpleName();
+
+    private static final String[] NO_PERMISSIONS = new String[0];
+
+    @NonNull final String packageName;
+    final int versionCode;
+    @NonNull final String[] permissions;
+    @NonNull final int[] ids;
+
+    private ManifestPermissions(@NonNull String packageName,
+                                int versionCode,
+                                @NonNull String[] permissions) {
+        this.packageName = packageName;
+        this.versionCode = versionCode;
+        this.permissions = permissions;
+        this.ids = PlatformPermissions.idsOf(permissions);
+    }
+
+    /**
+     * @param packageName the package that the permissions could not be read for.
+     * @return an index without any permissions.
+     */
+    @NonNull
+    static ManifestPermissions empty(@NonNull String packageName) {
+        return new ManifestPermissions(packageName, 0, NO_PERMISSIONS);
+    }
+
+    /**
+     * Reads the permissions declared in the manifest of the
+     * Context's package from the PackageManager.
+     *
+     * @param platform the platform to query the PackageManager through.
+     * @param context  the Context necessary to query the PackageManager.
+     * @return a non null index of the permissions declared in the manifest.
+     */
+    @NonNull
+    static ManifestPermissions read(@NonNull Platform platform, @NonNull Context context) {
+        String packageName = context.getPackageName();
+        PackageInfo packageInfo = null;
+        try {
+            packageInfo = platform.getPackageInfo(context, packageName, PackageManager.GET_PERMISSIONS);
+        } catch (PackageManager.NameNotFoundException e) {
+            platform.logError(TAG, "A problem occurred when retrieving permissions", e);
+        }
+        if (packageInfo == null) {
+            return empty(packageName);
+        }
+        String[] permissions = packageInfo.requestedPermissions;
+        platform.logDebug(TAG, packageName + " declares " + (permissions != null ? permissions.length : 0) + " permissions");
+        return new ManifestPermissions(packageName, packageInfo.versionCode,
+            permissions != null ? permissions : NO_PERMISSIONS);
+    }
+}
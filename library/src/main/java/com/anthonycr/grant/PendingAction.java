@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A weak reference to a {@link PermissionsResultAction} waiting on the result
+ * of one or more permissions, along with the ids of the permissions it is
+ * still waiting on. The reference is enqueued once the action has been
+ * garbage collected so that it can be removed from the index.
+ */
+final class PendingAction extends WeakReference<PermissionsResultAction> {
+
+    @NonNull final long[] waiting;
+
+    /**
+     * The number of permissions in {@link #waiting}.
+     */
+    int remaining;
+
+    /**
+     * The uptime in milliseconds the action was added at, or
+     * {@link PendingActions#NEVER_EXPIRES} if it does not expire.
+     */
+    final long since;
+
+    PendingAction(@NonNull PermissionsResultAction action,
+                  @NonNull long[] waiting,
+                  long since,
+                  @NonNull ReferenceQueue<PermissionsResultAction> queue) {
+        super(action, queue);
+        this.waiting = waiting;
+        this.since = since;
+        this.remaining = PermissionBits.count(waiting);
+    }
+}
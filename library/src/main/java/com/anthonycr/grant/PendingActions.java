@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The {@link PermissionsResultAction} objects waiting on permission results, indexed
+ * by the ids of the permissions they are waiting on. A result for a permission only
+ * touches the actions that registered that permission, and an action is removed from
+ * the index in constant time per permission it registered. Actions that were registered
+ * first are notified first. This class is not thread safe.
+ */
+final class PendingActions {
+
+    static final long NEVER_EXPIRES = -1;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Set<PendingAction>[] mActionsById = new Set[PlatformPermissions.size()];
+    private final ReferenceQueue<PermissionsResultAction> mCollected = new ReferenceQueue<>();
+    // The actions that expire, oldest first since they are added in order
+    private final ArrayDeque<PendingAction> mExpiring = new ArrayDeque<>();
+    private int mSize = 0;
+
+    /**
+     * Adds the action to the index under each of the permissions.
+     *
+     * @param action  the action waiting on the permissions.
+     * @param waiting the ids of the platform permissions the action is waiting on.
+     * @param since   the uptime in milliseconds the action is added at, or
+     *                {@link #NEVER_EXPIRES} if the action should wait forever.
+     */
+    void add(@NonNull PermissionsResultAction action, @NonNull long[] waiting, long since) {
+        PendingAction pending = new PendingAction(action, waiting, since, mCollected);
+        if (pending.remaining == 0) {
+            return;
+        }
+        if (since != NEVER_EXPIRES) {
+            mExpiring.add(pending);
+        }
+        for (int id = PermissionBits.nextSetBit(waiting, 0); id >= 0; id = PermissionBits.nextSetBit(waiting, id + 1)) {
+            Set<PendingAction> actions = mActionsById[id];
+            if (actions == null) {
+                actions = new LinkedHashSet<>(1);
+                mActionsById[id] = actions;
+            }
+            actions.add(pending);
+        }
+        mSize++;
+    }
+
+    /**
+     * Notifies every action waiting on the permission of its result. Each of those actions
+     * stops waiting on the permission, and actions that have completed or have been garbage
+     * collected are removed from the index entirely.
+     *
+     * @param id     the id of the permission that changed.
+     * @param result the result for the permission.
+     */
+    void dispatch(int id, @NonNull Permissions result) {
+        Set<PendingAction> actions = mActionsById[id];
+        if (actions == null) {
+            return;
+        }
+        mActionsById[id] = null;
+        String permission = PlatformPermissions.nameOf(id);
+        for (PendingAction pending : actions) {
+            PermissionBits.clear(pending.waiting, id);
+            pending.remaining--;
+            PermissionsResultAction action = pending.get();
+            if (action == null || action.onResult(id, permission, result)) {
+                remove(pending);
+            } else if (pending.remaining == 0) {
+                mSize--;
+            }
+        }
+    }
+
+    /**
+     * Notifies the actions that were added at or before the cutoff that their remaining
+     * permissions have timed out, and removes them from the index.
+     *
+     * @param cutoff the uptime in milliseconds the actions must have been added after.
+     */
+    void expire(long cutoff) {
+        PendingAction pending;
+        while ((pending = mExpiring.peek()) != null && pending.since <= cutoff) {
+            mExpiring.poll();
+            if (pending.remaining == 0) {
+                continue;
+            }
+            PermissionsResultAction action = pending.get();
+            if (action != null) {
+                long[] waiting = pending.waiting;
+                for (int id = PermissionBits.nextSetBit(waiting, 0); id >= 0; id = PermissionBits.nextSetBit(waiting, id + 1)) {
+                    if (action.onResult(id, PlatformPermissions.nameOf(id), Permissions.TIMED_OUT)) {
+                        break;
+                    }
+                }
+            }
+            remove(pending);
+        }
+    }
+
+    /**
+     * @return the uptime in milliseconds the oldest action that expires was added at,
+     * or {@link #NEVER_EXPIRES} if no actions expire.
+     */
+    long getOldestExpiring() {
+        PendingAction pending;
+        // Drop the actions that completed so that they do not keep the sweep running
+        while ((pending = mExpiring.peek()) != null && pending.remaining == 0) {
+            mExpiring.poll();
+        }
+        return pending != null ? pending.since : NEVER_EXPIRES;
+    }
+
+    /**
+     * Stops the actions that have been added from expiring.
+     */
+    void clearExpiring() {
+        mExpiring.clear();
+    }
+
+    /**
+     * Removes the actions that have been garbage collected before receiving all of their
+     * results, so that the index does not grow when results never arrive.
+     *
+     * @return the number of actions that were removed.
+     */
+    int removeCollected() {
+        int removed = 0;
+        Reference<? extends PermissionsResultAction> reference;
+        while ((reference = mCollected.poll()) != null) {
+            PendingAction pending = (PendingAction) reference;
+            // Actions that already completed are no longer in the index
+            if (pending.remaining > 0) {
+                remove(pending);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of actions that are waiting on at least one permission,
+     * including any that have been garbage collected since {@link #removeCollected()}.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Removes the action from the index under each of the permissions it is still waiting on.
+     *
+     * @param pending the action to remove.
+     */
+    private void remove(@NonNull PendingAction pending) {
+        long[] waiting = pending.waiting;
+        for (int id = PermissionBits.nextSetBit(waiting, 0); id >= 0; id = PermissionBits.nextSetBit(waiting, id + 1)) {
+            Set<PendingAction> actions = mActionsById[id];
+            if (actions != null && actions.remove(pending) && actions.isEmpty()) {
+                mActionsById[id] = null;
+            }
+        }
+        PermissionBits.clearAll(waiting);
+        pending.remaining = 0;
+        mSize--;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The platform permissions that the user has denied permanently, i.e. by choosing
+ * "don't ask again", so that requesting them again would come straight back denied
+ * without showing anything. A permission is only added once it has been denied in
+ * the result of a request and the system no longer wants a rationale shown for it,
+ * since a permission that has never been requested looks the same to the system.
+ * <p/>
+ * Like the {@link GrantStateCache}, the ids are held in an immutable set that is
+ * replaced atomically on every change, so checking a permission never takes a lock.
+ */
+final class PermanentDenials {
+
+    private final AtomicReference<long[]> mDenied = new AtomicReference<>(PermissionBits.create());
+
+    /**
+     * @param id the id of the permission.
+     * @return true if the permission has been denied permanently.
+     */
+    boolean contains(int id) {
+        return PermissionBits.get(mDenied.get(), id);
+    }
+
+    /**
+     * @return the ids of the permanently denied permissions. The set is
+     * never modified once published, so it can be iterated without a lock.
+     */
+    @NonNull
+    long[] get() {
+        return mDenied.get();
+    }
+
+    /**
+     * @param id the id of the permission that was denied permanently.
+     */
+    void add(int id) {
+        while (true) {
+            long[] current = mDenied.get();
+            if (PermissionBits.get(current, id)) {
+                return;
+            }
+            long[] updated = current.clone();
+            PermissionBits.set(updated, id);
+            if (mDenied.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param id the id of the permission that can be requested again.
+     */
+    void remove(int id) {
+        while (true) {
+            long[] current = mDenied.get();
+            if (!PermissionBits.get(current, id)) {
+                return;
+            }
+            long[] updated = current.clone();
+            PermissionBits.clear(updated, id);
+            if (mDenied.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Static helpers for sets of platform permissions stored as bits, where
+ * the bit at a permission's id in the {@link PermissionTable} is set if the
+ * permission is in the set. None of the operations allocate except
+ * {@link #create()}.
+ */
+final class PermissionBits {
+
+    private PermissionBits() {}
+
+    /**
+     * @return an empty set large enough to hold every platform permission.
+     */
+    @NonNull
+    static long[] create() {
+        return new long[(PlatformPermissions.size() + 63) >>> 6];
+    }
+
+    static boolean get(@NonNull long[] bits, int id) {
+        return (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * @return true if the bit was not already set, false otherwise.
+     */
+    static boolean set(@NonNull long[] bits, int id) {
+        long mask = 1L << id;
+        long word = bits[id >>> 6];
+        bits[id >>> 6] = word | mask;
+        return (word & mask) == 0;
+    }
+
+    /**
+     * @return true if the bit was set, false otherwise.
+     */
+    static boolean clear(@NonNull long[] bits, int id) {
+        long mask = 1L << id;
+        long word = bits[id >>> 6];
+        bits[id >>> 6] = word & ~mask;
+        return (word & mask) != 0;
+    }
+
+    static void clearAll(@NonNull long[] bits) {
+        for (int n = 0; n < bits.length; n++) {
+            bits[n] = 0;
+        }
+    }
+
+    static boolean isEmpty(@NonNull long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int count(@NonNull long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Adds every permission in the source set to the destination set.
+     */
+    static void addAll(@NonNull long[] destination, @NonNull long[] source) {
+        for (int n = 0; n < destination.length; n++) {
+            destination[n] |= source[n];
+        }
+    }
+
+    /**
+     * Returns the id of the first permission in the set at or after the id.
+     * Iterate over a set with {@code for (int id = nextSetBit(bits, 0); id >= 0; id = nextSetBit(bits, id + 1))}.
+     *
+     * @param bits the set to search.
+     * @param from the id to start searching from.
+     * @return the next id in the set, or -1 if there is none.
+     */
+    static int nextSetBit(@NonNull long[] bits, int from) {
+        int index = from >>> 6;
+        if (index >= bits.length) {
+            return -1;
+        }
+        long word = bits[index] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (index << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++index == bits.length) {
+                return -1;
+            }
+            word = bits[index];
+        }
+    }
+
+    /**
+     * @return the names of the permissions in the set, ordered by id.
+     */
+    @NonNull
+    static String[] toNames(@NonNull long[] bits) {
+        String[] names = new String[count(bits)];
+        int n = 0;
+        for (int id = nextSetBit(bits, 0); id >= 0; id = nextSetBit(bits, id + 1)) {
+            names[n++] = PlatformPermissions.nameOf(id);
+        }
+        return names;
+    }
+
+    /**
+     * @return the ids of the permissions in the set, in order.
+     */
+    @NonNull
+    static int[] toIds(@NonNull long[] bits) {
+        int[] ids = new int[count(bits)];
+        int n = 0;
+        for (int id = nextSetBit(bits, 0); id >= 0; id = nextSetBit(bits, id + 1)) {
+            ids[n++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * @param ids the ids of the permissions, {@link PlatformPermissions#NO_ID} is ignored.
+     * @return a new set containing the permissions.
+     */
+    @NonNull
+    static long[] fromIds(@NonNull int[] ids) {
+        long[] bits = create();
+        for (int id : ids) {
+            if (id >= 0 && id < PlatformPermissions.size()) {
+                set(bits, id);
+            }
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Lookup methods for the runtime permission groups of the generated
+ * {@link PermissionTable}. The groups are those of Android 6.0 to 7.1, where
+ * granting one permission of a group grants the whole group, so they must
+ * only be used on those versions.
+ */
+final class PermissionGroups {
+
+    /**
+     * The group of permissions that do not belong to a runtime group.
+     */
+    static final int NO_GROUP = 0;
+
+    // The ids of the permissions of each group, indexed by group
+    private static final long[][] MEMBERS = createMembers();
+
+    private PermissionGroups() {}
+
+    @NonNull
+    private static long[][] createMembers() {
+        long[][] members = new long[PermissionTable.GROUP_NAMES.length][];
+        for (int group = 0; group < members.length; group++) {
+            members[group] = PermissionBits.create();
+        }
+        for (int id = 0; id < PermissionTable.GROUP.length; id++) {
+            if (PermissionTable.GROUP[id] != NO_GROUP) {
+                PermissionBits.set(members[PermissionTable.GROUP[id]], id);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * @param id the id of a permission.
+     * @return the group of the permission, or {@link #NO_GROUP} if it has none
+     * or is not part of the platform table.
+     */
+    static int groupOf(int id) {
+        return id < PermissionTable.GROUP.length ? PermissionTable.GROUP[id] : NO_GROUP;
+    }
+
+    /**
+     * @param group a group other than {@link #NO_GROUP}.
+     * @return the name of the group, e.g. android.permission-group.LOCATION.
+     */
+    @NonNull
+    static String nameOf(int group) {
+        return PermissionTable.GROUP_NAMES[group];
+    }
+
+    /**
+     * @param group a group other than {@link #NO_GROUP}.
+     * @return the ids of the permissions of the group, which must not be modified.
+     */
+    @NonNull
+    static long[] membersOf(int group) {
+        return MEMBERS[group];
+    }
+}
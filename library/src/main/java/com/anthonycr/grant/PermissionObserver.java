@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+/**
+ * An observer of the grant state of one or more permissions, which can be
+ * registered with the {@link PermissionsManager} instead of checking the
+ * permissions every time a screen is resumed. The observer is notified when
+ * the state changes, either through a permissions request or because the user
+ * changed it in the system Settings while the application was in the background.
+ */
+public interface PermissionObserver {
+
+    /**
+     * Called on the main thread when the grant state of an observed permission
+     * has changed. It is called once for every permission that changed.
+     *
+     * @param permission the permission that changed.
+     * @param granted    true if the permission is now granted, false otherwise.
+     */
+    void onPermissionChanged(@NonNull String permission, boolean granted);
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registered {@link PermissionObserver} objects, along with the last known
+ * state of every permission they observe. Changes are found by diffing new
+ * states against the last known ones, so each observer is only notified of the
+ * permissions it observes that actually changed. This class is not thread safe.
+ */
+final class PermissionObservers {
+
+    // The ids each observer observes, in the order the observers were registered
+    private final Map<PermissionObserver, long[]> mObservers = new LinkedHashMap<>(1);
+    private final long[] mObserved = PermissionBits.create();
+    private final byte[] mStates = new byte[PlatformPermissions.size()];
+
+    /**
+     * Registers the observer for the permissions, in addition to any
+     * permissions it was already registered for.
+     *
+     * @param observer the observer to notify.
+     * @param ids      the ids of the permissions to observe.
+     */
+    void add(@NonNull PermissionObserver observer, @NonNull long[] ids) {
+        long[] observed = mObservers.get(observer);
+        if (observed == null) {
+            mObservers.put(observer, ids.clone());
+        } else {
+            PermissionBits.addAll(observed, ids);
+        }
+        PermissionBits.addAll(mObserved, ids);
+    }
+
+    /**
+     * Unregisters the observer from all of its permissions. The last known state of
+     * permissions that are no longer observed is forgotten, since it will not be kept
+     * up to date.
+     *
+     * @param observer the observer to unregister.
+     */
+    void remove(@NonNull PermissionObserver observer) {
+        if (mObservers.remove(observer) == null) {
+            return;
+        }
+        long[] observed = PermissionBits.create();
+        for (long[] ids : mObservers.values()) {
+            PermissionBits.addAll(observed, ids);
+        }
+        for (int id = PermissionBits.nextSetBit(mObserved, 0); id >= 0; id = PermissionBits.nextSetBit(mObserved, id + 1)) {
+            if (!PermissionBits.get(observed, id)) {
+                mStates[id] = GrantStateCache.UNKNOWN;
+            }
+        }
+        PermissionBits.clearAll(mObserved);
+        PermissionBits.addAll(mObserved, observed);
+    }
+
+    boolean isEmpty() {
+        return mObservers.isEmpty();
+    }
+
+    /**
+     * @return the ids of every observed permission, which must not be modified.
+     */
+    @NonNull
+    long[] getObserved() {
+        return mObserved;
+    }
+
+    /**
+     * @param id the id of the permission.
+     * @return true if the last known state of an observed permission is known.
+     */
+    boolean isKnown(int id) {
+        return mStates[id] != GrantStateCache.UNKNOWN;
+    }
+
+    /**
+     * Records the new state of the permission if it is observed.
+     *
+     * @param id      the id of the permission.
+     * @param granted whether the permission is granted.
+     * @return true if the state differs from the last known state, false if it is the same,
+     * was not known yet, or the permission is not observed.
+     */
+    boolean update(int id, boolean granted) {
+        if (!PermissionBits.get(mObserved, id)) {
+            return false;
+        }
+        byte state = (byte) (granted ? GrantStateCache.GRANTED : GrantStateCache.DENIED);
+        byte previous = mStates[id];
+        mStates[id] = state;
+        return previous != GrantStateCache.UNKNOWN && previous != state;
+    }
+
+    /**
+     * Creates the notification of every observer that observes one of the changed permissions.
+     *
+     * @param changed the ids of the permissions that changed.
+     * @return the notification to run on the main thread, or null if there is nothing to notify.
+     */
+    @Nullable
+    Runnable notificationFor(@NonNull long[] changed) {
+        if (PermissionBits.isEmpty(changed)) {
+            return null;
+        }
+        final List<PermissionObserver> observers = new ArrayList<>(1);
+        final List<String> permissions = new ArrayList<>(1);
+        final List<Boolean> states = new ArrayList<>(1);
+        for (Map.Entry<PermissionObserver, long[]> entry : mObservers.entrySet()) {
+            long[] ids = entry.getValue();
+            for (int id = PermissionBits.nextSetBit(changed, 0); id >= 0; id = PermissionBits.nextSetBit(changed, id + 1)) {
+                if (PermissionBits.get(ids, id)) {
+                    observers.add(entry.getKey());
+                    permissions.add(PlatformPermissions.nameOf(id));
+                    states.add(mStates[id] == GrantStateCache.GRANTED);
+                }
+            }
+        }
+        if (observers.isEmpty()) {
+            return null;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                for (int n = 0; n < observers.size(); n++) {
+                    observers.get(n).onPermissionChanged(permissions.get(n), states.get(n));
+                }
+            }
+        };
+    }
+}
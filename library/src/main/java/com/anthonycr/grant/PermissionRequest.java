@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, precompiled set of permissions to check or request. The
+ * permissions are looked up in the platform table once, when the request is
+ * created, so a request that is kept around, e.g. as a static final field,
+ * can be checked and requested repeatedly without any further lookups or
+ * allocations.
+ * <pre>
+ * private static final PermissionRequest CAMERA = PermissionRequest.of(Manifest.permission.CAMERA);
+ * ...
+ * if (PermissionsManager.getInstance().hasAllPermissions(context, CAMERA)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class PermissionRequest {
+
+    @NonNull final String[] permissions;
+    @NonNull final int[] ids;
+
+    private PermissionRequest(@NonNull String[] permissions) {
+        this.permissions = permissions;
+        this.ids = PlatformPermissions.idsOf(permissions);
+    }
+
+    /**
+     * Creates a request for the permissions.
+     *
+     * @param permissions the permissions to check or request.
+     * @return a request for the permissions.
+     * @throws IllegalArgumentException if any of the permissions is null.
+     */
+    @NonNull
+    public static PermissionRequest of(@NonNull String... permissions) {
+        for (String permission : permissions) {
+            if (permission == null) {
+                throw new IllegalArgumentException("Permissions must not be null");
+            }
+        }
+        return new PermissionRequest(permissions.clone());
+    }
+
+    /**
+     * @return a copy of the permissions in this request.
+     */
+    @NonNull
+    public String[] getPermissions() {
+        return permissions.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionRequest" + Arrays.toString(permissions);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The immutable result of a permissions request, holding the state of every
+ * permission that was requested in the order they were requested. Unlike a
+ * {@link PermissionsResultAction}, which stops at the first denial, the result
+ * contains the outcome of every permission.
+ */
+public final class PermissionResult {
+
+    @NonNull private final Map<String, Permissions> mResults;
+
+    PermissionResult(@NonNull LinkedHashMap<String, Permissions> results) {
+        mResults = Collections.unmodifiableMap(results);
+    }
+
+    /**
+     * @return an unmodifiable map of each requested permission to its state.
+     */
+    @NonNull
+    public Map<String, Permissions> asMap() {
+        return mResults;
+    }
+
+    /**
+     * @param permission the permission to look up.
+     * @return the state of the permission, or null if it was not requested.
+     */
+    @Nullable
+    public Permissions get(@NonNull String permission) {
+        return mResults.get(permission);
+    }
+
+    /**
+     * Determines whether the permission can be used. Permissions that do not exist
+     * on the current Android version are treated as granted, in the same way that
+     * {@link PermissionsResultAction} ignores them by default.
+     *
+     * @param permission the permission to check.
+     * @return true if the permission is granted or does not exist, false otherwise.
+     */
+    public boolean isGranted(@NonNull String permission) {
+        Permissions state = mResults.get(permission);
+        return state == Permissions.GRANTED || state == Permissions.NOT_FOUND;
+    }
+
+    /**
+     * @return true if every requested permission is granted or does not exist, false otherwise.
+     */
+    public boolean isAllGranted() {
+        for (Permissions state : mResults.values()) {
+            if (state != Permissions.GRANTED && state != Permissions.NOT_FOUND) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionResult" + mResults;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the grant state of every permission declared in the
+ * application manifest, taken with {@link PermissionsManager#snapshot(android.content.Context)}.
+ * Querying the snapshot never calls into the system, so it can be used to check
+ * many permissions at once, e.g. to build a settings screen.
+ */
+public final class PermissionSnapshot {
+
+    @NonNull private final ManifestPermissions mManifest;
+    // Shared with the grant state cache, which never modifies an array once published
+    @NonNull final byte[] states;
+    // The SDK version of the platform, which decides the permissions that exist
+    private final int mSdkInt;
+
+    PermissionSnapshot(@NonNull ManifestPermissions manifest, @NonNull byte[] states, int sdkInt) {
+        mManifest = manifest;
+        this.states = states;
+        mSdkInt = sdkInt;
+    }
+
+    /**
+     * @param manifest the manifest permissions to check.
+     * @return true if this snapshot was taken of the manifest permissions.
+     */
+    boolean isOf(@NonNull ManifestPermissions manifest) {
+        return mManifest == manifest;
+    }
+
+    /**
+     * @param permission the permission to get the state of.
+     * @return {@link Permissions#GRANTED} or {@link Permissions#DENIED}, or
+     * {@link Permissions#NOT_FOUND} if the permission does not exist on this
+     * version of Android or is not a platform permission.
+     */
+    @NonNull
+    public Permissions getState(@NonNull String permission) {
+        return getState(PlatformPermissions.idOf(permission));
+    }
+
+    @NonNull
+    private Permissions getState(int id) {
+        if (!PlatformPermissions.isAvailable(id, mSdkInt)) {
+            return Permissions.NOT_FOUND;
+        }
+        return states[id] == GrantStateCache.GRANTED ? Permissions.GRANTED : Permissions.DENIED;
+    }
+
+    /**
+     * @param permission the permission to check.
+     * @return true if the permission was granted or does not exist on this version of
+     * Android, the same as {@link PermissionsManager#hasPermission(android.content.Context, String)}.
+     */
+    public boolean isGranted(@NonNull String permission) {
+        return getState(permission) != Permissions.DENIED;
+    }
+
+    /**
+     * @param request the permissions to check.
+     * @return true if every permission of the request was granted, false otherwise.
+     */
+    public boolean isGranted(@NonNull PermissionRequest request) {
+        for (int id : request.ids) {
+            if (PlatformPermissions.isAvailable(id, mSdkInt) && states[id] != GrantStateCache.GRANTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the permissions declared in the application manifest.
+     */
+    @NonNull
+    public String[] getPermissions() {
+        return mManifest.permissions.clone();
+    }
+
+    /**
+     * @return the permissions declared in the application manifest that were denied.
+     */
+    @NonNull
+    public String[] getDeniedPermissions() {
+        List<String> denied = new ArrayList<>(mManifest.permissions.length);
+        for (int n = 0; n < mManifest.permissions.length; n++) {
+            if (getState(mManifest.ids[n]) == Permissions.DENIED) {
+                denied.add(mManifest.permissions[n]);
+            }
+        }
+        return denied.toArray(new String[denied.size()]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PermissionSnapshot{");
+        for (int n = 0; n < mManifest.permissions.length; n++) {
+            if (n > 0) {
+                builder.append(", ");
+            }
+            builder.append(mManifest.permissions[n]).append('=').append(getState(mManifest.ids[n]));
+        }
+        return builder.append('}').toString();
+    }
+}
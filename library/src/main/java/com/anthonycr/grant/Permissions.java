@@ -23,10 +23,17 @@ package com.anthonycr.grant;
 /**
  * Enum class to handle the different states
  * of permissions since the PackageManager only
- * has a granted and denied state.
+ * has a granted and denied state. TIMED_OUT is
+ * used when no result arrived before the request
+ * timeout set on the PermissionsManager, and
+ * DENIED_PERMANENTLY when the permission was not
+ * requested because the user chose to not be
+ * asked again.
  */
-enum Permissions {
+public enum Permissions {
     GRANTED,
     DENIED,
-    NOT_FOUND
+    NOT_FOUND,
+    TIMED_OUT,
+    DENIED_PERMANENTLY
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A handle to a permissions request that completes once, when every requested
+ * permission has a result. Callbacks can be chained onto the future, and the
+ * blocking {@link #get(long, TimeUnit)} can be used to give up on a request after
+ * a timeout. Never block on the future from the main thread, since that is the
+ * thread the result is delivered on.
+ * <p/>
+ * Like {@link PermissionsResultAction}, the future is only weakly referenced by
+ * the {@link PermissionsManager}, so keep a reference to it until it completes.
+ */
+public final class PermissionsFuture implements Future<PermissionResult> {
+
+    /**
+     * A callback that is notified when the future completes.
+     */
+    public interface Callback {
+
+        /**
+         * Called once the result of every requested permission is known.
+         *
+         * @param result the result of the request.
+         */
+        void onComplete(@NonNull PermissionResult result);
+    }
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+
+    // Guarded by this
+    @Nullable private PermissionsResultAction mAction;
+    @Nullable private List<Runnable> mCallbacks = new ArrayList<>(1);
+    @Nullable private PermissionResult mResult;
+    private boolean mCancelled = false;
+
+    PermissionsFuture() {}
+
+    /**
+     * Holds a strong reference to the action completing this future for
+     * as long as the future is pending.
+     *
+     * @param action the action that will complete the future.
+     */
+    synchronized void setAction(@NonNull PermissionsResultAction action) {
+        if (mCallbacks != null) {
+            mAction = action;
+        }
+    }
+
+    /**
+     * Adds a callback that is run on the thread that completes the future, which is the
+     * thread the PermissionsManager is notified of the results on, or right away if the
+     * future has already completed.
+     *
+     * @param callback the callback to notify.
+     * @return this future, so that calls can be chained.
+     */
+    @NonNull
+    public PermissionsFuture addCallback(@NonNull Callback callback) {
+        return addCallback(callback, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * Adds a callback that is run on the executor once the future completes. The
+     * callback is never run if the future is cancelled.
+     *
+     * @param callback the callback to notify.
+     * @param executor the executor the callback is run on.
+     * @return this future, so that calls can be chained.
+     */
+    @NonNull
+    public PermissionsFuture addCallback(@NonNull final Callback callback, @NonNull final Executor executor) {
+        final PermissionResult result;
+        synchronized (this) {
+            if (mCallbacks != null) {
+                mCallbacks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(callback, executor, mResult);
+                    }
+                });
+                return this;
+            }
+            result = mResult;
+        }
+        deliver(callback, executor, result);
+        return this;
+    }
+
+    private static void deliver(@NonNull final Callback callback,
+                                @NonNull Executor executor,
+                                @Nullable final PermissionResult result) {
+        if (result == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+
+    /**
+     * Completes the future with the result and notifies the callbacks.
+     *
+     * @param result the result of the request.
+     * @return true if the future was completed, false if it had already completed.
+     */
+    boolean complete(@NonNull PermissionResult result) {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            if (mCallbacks == null) {
+                return false;
+            }
+            mResult = result;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            mAction = null;
+        }
+        mLatch.countDown();
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (mCallbacks == null) {
+                return false;
+            }
+            mCancelled = true;
+            mCallbacks = null;
+            mAction = null;
+        }
+        mLatch.countDown();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mCallbacks == null;
+    }
+
+    @Override
+    public PermissionResult get() throws InterruptedException {
+        mLatch.await();
+        return getResult();
+    }
+
+    @Override
+    public PermissionResult get(long timeout, @NonNull TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!mLatch.await(timeout, unit)) {
+            throw new TimeoutException("Permissions request did not complete in " + timeout + " " + unit);
+        }
+        return getResult();
+    }
+
+    @NonNull
+    private synchronized PermissionResult getResult() {
+        if (mCancelled || mResult == null) {
+            throw new CancellationException("Permissions request was cancelled");
+        }
+        return mResult;
+    }
+}
@@ -20,138 +20,501 @@
  */
 package com.anthonycr.grant;
 
-import android.Manifest;
 import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.Fragment;
 import android.util.Log;
 
-import java.lang.ref.WeakReference;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A class to help you manage your permissions simply.
+ * A class to help you manage your permissions simply. Checking permissions
+ * never blocks on requests or results being processed on other threads, only
+ * the methods that change the pending requests and actions hold a lock, which
+ * is shared with the scoped managers since they share the request in flight.
  */
 public class PermissionsManager {
 
     private static final String TAG = PermissionsManager.class.getSimpleName();
 
-    private final Set<String> mPendingRequests = new HashSet<>(1);
-    private final Set<String> mPermissions = new HashSet<>(1);
-    private final List<WeakReference<PermissionsResultAction>> mPendingActions = new ArrayList<>(1);
+    // Build.VERSION_CODES.O, which is newer than the compile SDK
+    private static final int ANDROID_O = 26;
 
-    private static PermissionsManager mInstance = null;
+    private static final String STATE_KEY = PermissionsManager.class.getName();
+    private static final String STATE_REQUEST_CODE = "requestCode";
+    private static final String STATE_PERMISSIONS = "permissions";
+    private static final String STATE_SINCE = "since";
+    private static final String STATE_NEXT_REQUEST_CODE = "nextRequestCode";
+
+    @NonNull private final SharedState mShared;
+    @NonNull private final Platform mPlatform;
+    private final RequestScheduler mRequestScheduler;
+    private final PendingActions mPendingActions = new PendingActions();
+    private long mRequestTimeoutMillis = 0;
+    private boolean mSweepScheduled = false;
+    private final Runnable mSweep = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mShared) {
+                mSweepScheduled = false;
+                expirePending();
+            }
+        }
+    };
+
+    private final GrantStateCache mGrantStates;
+    private final PermanentDenials mPermanentDenials;
+
+    private static volatile PermissionsManager mInstance = null;
 
     public static PermissionsManager getInstance() {
-        if (mInstance == null) {
-            mInstance = new PermissionsManager();
+        PermissionsManager instance = mInstance;
+        if (instance == null) {
+            synchronized (PermissionsManager.class) {
+                instance = mInstance;
+                if (instance == null) {
+                    instance = new PermissionsManager(AndroidPlatform.INSTANCE);
+                    mInstance = instance;
+                }
+            }
         }
-        return mInstance;
+        return instance;
     }
 
-    private PermissionsManager() {
-        initializePermissionsMap();
+    /**
+     * Creates a PermissionsManager that makes its calls into the framework through the
+     * platform, which allows the permission engine to run against a simulated platform.
+     *
+     * @param platform the platform to check and request permissions through.
+     */
+    PermissionsManager(@NonNull Platform platform) {
+        this(new SharedState(platform), 0);
+        mShared.setRoot(this);
     }
 
     /**
-     * This method uses reflection to read all the permissions in the Manifest class.
-     * This is necessary because some permissions do not exist on older versions of Android,
-     * since they do not exist, they will be denied when you check whether you have permission
-     * which is problematic since a new permission is often added where there was no previous
-     * permission required. We initialize a Set of available permissions and check the set
-     * when checking if we have permission since we want to know when we are denied a permission
-     * because it doesn't exist yet.
+     * Creates a PermissionsManager with its own pending actions
+     * that shares the rest of its state with other managers.
+     *
+     * @param shared               the state shared with the other managers.
+     * @param requestTimeoutMillis the request timeout to start with.
      */
-    private synchronized void initializePermissionsMap() {
-        Field[] fields = Manifest.permission.class.getFields();
-        for (Field field : fields) {
-            String name = null;
-            try {
-                name = (String) field.get("");
-            } catch (IllegalAccessException e) {
-                Log.e(TAG, "Could not access field", e);
+    PermissionsManager(@NonNull SharedState shared, long requestTimeoutMillis) {
+        mShared = shared;
+        mPlatform = shared.platform;
+        mGrantStates = shared.grantStates;
+        mPermanentDenials = shared.permanentDenials;
+        mRequestScheduler = shared.scheduler;
+        mRequestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    /**
+     * Returns the PermissionsManager scoped to the Activity. A scoped manager has its own
+     * pending actions, so a result does not have to go through the actions of other screens
+     * that do not wait on it, while the requests, the manifest permissions, the cached grant
+     * state, the observers and the metrics are shared with {@link #getInstance()}. Requests
+     * are still made one at a time with those of every other manager, since the system only
+     * shows one permissions dialog at a time, and results can be passed to any manager.
+     * The scope is dropped when the Activity is destroyed, together with the actions that are
+     * still waiting, so the request in flight should be saved with
+     * {@link #saveInstanceState(Activity, Bundle)} to survive configuration changes. A new
+     * scope starts with the request timeout of {@link #getInstance()}.
+     *
+     * @param activity the Activity that the manager is scoped to.
+     * @return the manager scoped to the Activity.
+     */
+    @NonNull
+    @SuppressWarnings("unused")
+    public static PermissionsManager forActivity(@NonNull Activity activity) {
+        PermissionsManager instance = getInstance();
+        return instance.mShared.getScope(activity, instance.getRequestTimeoutMillis());
+    }
+
+    /**
+     * Returns the PermissionsManager scoped to the Fragment. The scope is dropped when the
+     * Fragment is destroyed. See {@link #forActivity(Activity)}.
+     *
+     * @param fragment the Fragment that the manager is scoped to.
+     * @return the manager scoped to the Fragment.
+     */
+    @NonNull
+    @SuppressWarnings("unused")
+    public static PermissionsManager forFragment(@NonNull Fragment fragment) {
+        PermissionsManager instance = getInstance();
+        return instance.mShared.getScope(fragment, instance.getRequestTimeoutMillis());
+    }
+
+    private long getRequestTimeoutMillis() {
+        synchronized (mShared) {
+            return mRequestTimeoutMillis;
+        }
+    }
+
+    /**
+     * Cancels the scheduled sweep once the scope of this manager has been dropped,
+     * after which the manager and its pending actions can be garbage collected, so they
+     * are no longer counted by the metrics.
+     */
+    void release() {
+        synchronized (mShared) {
+            if (mSweepScheduled) {
+                mSweepScheduled = false;
+                mPlatform.removeCallbacks(mSweep);
+            }
+            if (mPendingActions.size() > 0) {
+                reportPendingActionTotal();
             }
-            mPermissions.add(name);
         }
     }
 
+    /**
+     * This method can be called early in the application lifecycle, e.g. from
+     * Application.onCreate(), to initialize the PermissionsManager off of the
+     * main thread. The platform permission table, the permissions declared in
+     * the application manifest and the grant state of those permissions are each
+     * loaded as a separate task on the executor, so a call that arrives before warm
+     * up has finished only waits on the part of the state that it actually needs.
+     *
+     * @param context  the Context used to read the application manifest.
+     * @param executor the executor that the warm up work will be run on.
+     */
+    @SuppressWarnings("unused")
+    public static void prewarm(@NonNull Context context, @NonNull Executor executor) {
+        final PermissionsManager manager = getInstance();
+        final Context applicationContext = context.getApplicationContext();
+        // Registered right away rather than on the executor, so that it sees the first Activity start
+        manager.registerForegroundTracker(context);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PermissionsTracer tracer = Tracing.sTracer;
+                tracer.beginSection(Tracing.LOAD_PLATFORM_PERMISSIONS);
+                try {
+                    // Touching the table forces the generated class to be initialized
+                    PlatformPermissions.size();
+                } finally {
+                    tracer.endSection();
+                }
+            }
+        });
+        executor.execute(manager.getManifestPermissionsTask(applicationContext));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int[] ids = manager.getManifestPermissions(applicationContext).ids;
+                PermissionsTracer tracer = Tracing.sTracer;
+                tracer.beginSection(Tracing.CHECK_PERMISSIONS);
+                try {
+                    for (int id : ids) {
+                        if (manager.isAvailable(id)) {
+                            manager.checkPermission(applicationContext, id);
+                        }
+                    }
+                } finally {
+                    tracer.endSection();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the task that loads the permissions declared in the application manifest,
+     * creating it if it does not exist yet. The task is shared per package, so the manifest
+     * is only read once per process no matter how many threads ask for it.
+     *
+     * @param context the Context necessary to read the application manifest.
+     * @return the task loading the manifest permissions, which may not have been run yet.
+     */
+    @NonNull
+    private FutureTask<ManifestPermissions> getManifestPermissionsTask(@NonNull Context context) {
+        String packageName = context.getPackageName();
+        FutureTask<ManifestPermissions> task = mShared.manifestPermissions.get(packageName);
+        if (task != null) {
+            return task;
+        }
+        final Context applicationContext = context.getApplicationContext();
+        task = new FutureTask<>(new Callable<ManifestPermissions>() {
+            @Override
+            public ManifestPermissions call() throws Exception {
+                PermissionsTracer tracer = Tracing.sTracer;
+                tracer.beginSection(Tracing.READ_MANIFEST);
+                try {
+                    return ManifestPermissions.read(mPlatform, applicationContext);
+                } finally {
+                    tracer.endSection();
+                }
+            }
+        });
+        FutureTask<ManifestPermissions> existing = mShared.manifestPermissions.putIfAbsent(packageName, task);
+        return existing != null ? existing : task;
+    }
+
     /**
      * This method retrieves all the permissions declared in the application's manifest.
-     * It returns a non null array of permisions that can be declared.
+     * The manifest is only read the first time this method is called, after which the
+     * same immutable index is returned. If the permissions are being loaded by
+     * {@link #prewarm(Context, Executor)}, this method will wait for that load to finish
+     * rather than reading the manifest again. If reading the manifest fails, an empty
+     * index is returned and the manifest is read again on the next call.
      *
-     * @param activity the Activity necessary to check what permissions we have.
-     * @return a non null array of permissions that are declared in the application manifest.
+     * @param context the Context necessary to check what permissions we have.
+     * @return a non null index of the permissions that are declared in the application manifest.
      */
     @NonNull
-    private synchronized String[] getManifestPermissions(@NonNull final Activity activity) {
-        PackageInfo packageInfo = null;
-        List<String> list = new ArrayList<>(1);
+    private ManifestPermissions getManifestPermissions(@NonNull final Context context) {
+        FutureTask<ManifestPermissions> task = getManifestPermissionsTask(context);
+        PermissionsTracer tracer = Tracing.sTracer;
+        tracer.beginSection(Tracing.GET_MANIFEST_PERMISSIONS);
         try {
-            Log.d(TAG, activity.getPackageName());
-            packageInfo = activity.getPackageManager().getPackageInfo(activity.getPackageName(), PackageManager.GET_PERMISSIONS);
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(TAG, "A problem occurred when retrieving permissions", e);
-        }
-        if (packageInfo != null) {
-            String[] permissions = packageInfo.requestedPermissions;
-            if (permissions != null) {
-                for (String perm : permissions) {
-                    Log.d(TAG, "Manifest contained permission: " + perm);
-                    list.add(perm);
+            // Runs the task on this thread unless it has already been run elsewhere
+            task.run();
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ManifestPermissions.read(mPlatform, context);
+        } catch (ExecutionException e) {
+            mPlatform.logError(TAG, "A problem occurred when retrieving permissions", e.getCause());
+            // Only the failed task is removed, in case another thread has already replaced it
+            String packageName = context.getPackageName();
+            mShared.manifestPermissions.remove(packageName, task);
+            return ManifestPermissions.empty(packageName);
+        } finally {
+            tracer.endSection();
+        }
+    }
+
+    /**
+     * This method adds the {@link PermissionsResultAction} to the pending actions
+     * that will be completed when the permissions are received. The action is
+     * indexed under each of the permissions so that it is only notified of changes
+     * made to these permissions.
+     *
+     * @param permissions the ids of the permissions the action is still waiting on.
+     * @param action      the action to add to the pending actions.
+     */
+    private void addPendingAction(@NonNull long[] permissions,
+                                  @NonNull PermissionsResultAction action) {
+        synchronized (mShared) {
+            int size = mPendingActions.size();
+            long since = mRequestTimeoutMillis > 0 ? mPlatform.getUptimeMillis() : PendingActions.NEVER_EXPIRES;
+            mPendingActions.add(action, permissions, since);
+            reportPendingActions(size);
+        }
+    }
+
+    /**
+     * Sets how long a permissions request and the actions waiting on it may wait for
+     * a result. If the Activity or Fragment that made a request is finished or destroyed
+     * while the request is showing, the result never arrives. Such a request is finished
+     * as soon as another request is made, and with a timeout its actions do not have to wait
+     * for that, nor do the actions of requests whose result was lost in other ways. When the
+     * timeout passes, the waiting actions are notified with {@link PermissionsResultAction#onTimedOut(String)}.
+     * The request itself stays in flight, since its dialog may still be showing, so the next
+     * request is only made once its result arrives or the Activity or Fragment goes away, and
+     * a late result still updates the cached grant state. There is no timeout by default.
+     * Setting it also applies to the request already in flight, which times out once it has
+     * been showing for longer than the timeout, notifying every action waiting on it. Other
+     * actions that are already waiting when the timeout is set do not time out.
+     *
+     * @param timeout the time to wait for a result, 0 or less to wait forever.
+     * @param unit    the unit of the timeout.
+     */
+    @SuppressWarnings("unused")
+    public void setRequestTimeout(long timeout, @NonNull TimeUnit unit) {
+        synchronized (mShared) {
+            mRequestTimeoutMillis = timeout > 0 ? unit.toMillis(timeout) : 0;
+            if (mRequestTimeoutMillis > 0) {
+                expirePending();
+            } else {
+                mPendingActions.clearExpiring();
+                if (mSweepScheduled) {
+                    mSweepScheduled = false;
+                    mPlatform.removeCallbacks(mSweep);
                 }
             }
         }
-        return list.toArray(new String[list.size()]);
     }
 
     /**
-     * This method adds the {@link PermissionsResultAction} to the current list
-     * of pending actions that will be completed when the permissions are
-     * received. The list of permissions passed to this method are registered
-     * in the PermissionsResultAction object so that it will be notified of changes
-     * made to these permissions.
+     * Times out the actions waiting on the request in flight and the pending actions that
+     * have been waiting longer than the request timeout. The request in flight keeps
+     * waiting for its result, see {@link #setRequestTimeout(long, TimeUnit)}. This is cheap
+     * when nothing has expired, so it is called on every operation as well as from the
+     * scheduled sweep.
+     */
+    private void expirePending() {
+        if (mRequestTimeoutMillis <= 0) {
+            return;
+        }
+        long cutoff = mPlatform.getUptimeMillis() - mRequestTimeoutMillis;
+        int size = mPendingActions.size();
+        long inFlightSince = mRequestScheduler.getInFlightSince();
+        if (inFlightSince != RequestScheduler.NO_REQUEST && inFlightSince <= cutoff
+            && !mRequestScheduler.isInFlightTimedOut()) {
+            timeOutInFlight();
+            mRequestScheduler.onInFlightTimedOut();
+        }
+        mPendingActions.expire(cutoff);
+        reportPendingActions(size);
+        scheduleSweep();
+    }
+
+    /**
+     * Finishes the request in flight if the Activity or Fragment it was made from has been
+     * finished or destroyed while the permissions dialog was showing. Its result will never
+     * arrive, and no other request could be made until it did, so this does not wait for
+     * the request timeout, which is off by default. The actions waiting on it are timed out.
+     */
+    private void finishAbandonedRequest() {
+        if (mRequestScheduler.isInFlightAbandoned()) {
+            int size = mPendingActions.size();
+            timeOutInFlight();
+            mRequestScheduler.onRequestFinished();
+            reportPendingActions(size);
+        }
+    }
+
+    /**
+     * Notifies the actions of every manager waiting on the request in flight that it timed out.
+     */
+    private void timeOutInFlight() {
+        List<PermissionsManager> managers = mShared.getManagers();
+        long[] expired = mRequestScheduler.getInFlight();
+        for (int id = PermissionBits.nextSetBit(expired, 0); id >= 0; id = PermissionBits.nextSetBit(expired, id + 1)) {
+            dispatch(managers, id, Permissions.TIMED_OUT);
+        }
+    }
+
+    /**
+     * Notifies the actions of every manager that are waiting on the permission, since
+     * the requests of every manager are made together.
      *
-     * @param permissions the required permissions for the action to be executed.
-     * @param action      the action to add to the current list of pending actions.
+     * @param managers the managers sharing the request in flight, see {@link SharedState#getManagers()}.
+     * @param id       the id of the permission that changed.
+     * @param result   the result for the permission.
+     */
+    private static void dispatch(@NonNull List<PermissionsManager> managers, int id, @NonNull Permissions result) {
+        for (PermissionsManager manager : managers) {
+            manager.mPendingActions.dispatch(id, result);
+        }
+    }
+
+    /**
+     * Schedules the sweep for when the oldest request or action that can time out
+     * will have expired, unless a sweep is already scheduled. Since everything is
+     * added in order, a scheduled sweep always runs before anything added later expires.
      */
-    private synchronized void addPendingAction(@NonNull String[] permissions,
-                                               @Nullable PermissionsResultAction action) {
-        if (action == null) {
+    private void scheduleSweep() {
+        if (mRequestTimeoutMillis <= 0 || mSweepScheduled) {
+            return;
+        }
+        long oldest = mRequestScheduler.isInFlightTimedOut()
+            ? RequestScheduler.NO_REQUEST : mRequestScheduler.getInFlightSince();
+        long oldestAction = mPendingActions.getOldestExpiring();
+        if (oldest == RequestScheduler.NO_REQUEST
+            || (oldestAction != PendingActions.NEVER_EXPIRES && oldestAction < oldest)) {
+            oldest = oldestAction;
+        }
+        if (oldest == PendingActions.NEVER_EXPIRES) {
             return;
         }
-        action.registerPermissions(permissions);
-        mPendingActions.add(new WeakReference<>(action));
+        mSweepScheduled = true;
+        long delay = oldest + mRequestTimeoutMillis - mPlatform.getUptimeMillis();
+        mPlatform.postDelayed(mSweep, delay > 0 ? delay : 0);
+    }
+
+    /**
+     * Removes the pending actions that were garbage collected before their results
+     * arrived. This is done on every operation that changes the pending actions, so the
+     * index stays bounded even if results never arrive, e.g. because the Activity was
+     * finished while the permissions dialog was showing.
+     */
+    private void removeCollectedActions() {
+        int size = mPendingActions.size();
+        if (mPendingActions.removeCollected() > 0) {
+            reportPendingActions(size);
+        }
     }
 
     /**
-     * This method removes a pending action from the list of pending actions.
-     * It is used for cases where the permission has already been granted, so
-     * you immediately wish to remove the pending action from the queue and
-     * execute the action.
+     * Returns the number of {@link PermissionsResultAction} objects that are waiting on the
+     * result of a permissions request. Actions that have been garbage collected are not counted.
      *
-     * @param action the action to remove
+     * @return the number of live pending actions.
      */
-    private synchronized void removePendingAction(@Nullable PermissionsResultAction action) {
-        for (Iterator<WeakReference<PermissionsResultAction>> iterator = mPendingActions.iterator();
-             iterator.hasNext(); ) {
-            WeakReference<PermissionsResultAction> weakRef = iterator.next();
-            if (weakRef.get() == action || weakRef.get() == null) {
-                iterator.remove();
-            }
+    @SuppressWarnings("unused")
+    public int getPendingActionCount() {
+        synchronized (mShared) {
+            removeCollectedActions();
+            expirePending();
+            return mPendingActions.size();
         }
     }
 
+    /**
+     * Reports the number of pending actions to the metrics if it has changed.
+     *
+     * @param previousSize the number of pending actions before they were changed.
+     */
+    private void reportPendingActions(int previousSize) {
+        if (mPendingActions.size() != previousSize) {
+            reportPendingActionTotal();
+        }
+    }
+
+    /**
+     * Reports the number of pending actions of every manager to the metrics, since
+     * the metrics are shared by the scoped managers and the one that is not scoped.
+     */
+    private void reportPendingActionTotal() {
+        PermissionsMetrics metrics = mShared.metrics;
+        if (metrics == PermissionsMetrics.NONE) {
+            return;
+        }
+        int total = 0;
+        for (PermissionsManager manager : mShared.getManagers()) {
+            total += manager.mPendingActions.size();
+        }
+        metrics.onPendingActionsChanged(total);
+    }
+
+    /**
+     * Sets the {@link PermissionsMetrics} that the PermissionsManager reports requests, checks
+     * and dispatches to. No metrics are recorded by default. The metrics are shared with the
+     * scoped managers, see {@link #forActivity(Activity)}.
+     *
+     * @param metrics the metrics to report to, or null to stop reporting.
+     */
+    @SuppressWarnings("unused")
+    public void setMetrics(@Nullable PermissionsMetrics metrics) {
+        mShared.metrics = metrics != null ? metrics : PermissionsMetrics.NONE;
+    }
+
+    /**
+     * Sets the {@link PermissionsTracer} that marks the work of every PermissionsManager, such
+     * as requests, checks and result dispatches, so that it shows up in system traces. Use
+     * {@link SystemPermissionsTracer} to write to android.os.Trace. Nothing is traced by default.
+     *
+     * @param tracer the tracer to mark the work on, or null to stop tracing.
+     */
+    @SuppressWarnings("unused")
+    public static void setTracer(@Nullable PermissionsTracer tracer) {
+        Tracing.sTracer = tracer != null ? tracer : PermissionsTracer.NONE;
+    }
+
     /**
      * This static method can be used to check whether or not you have a specific permission.
      * It is basically a less verbose method of using {@link ActivityCompat#checkSelfPermission(Context, String)}
@@ -160,14 +523,21 @@ public class PermissionsManager {
      * However, the Activity parameter is nullable so that you can pass in a reference that you
      * are not always sure will be valid or not (e.g. getActivity() from Fragment).
      *
+     * The result is cached until the permission changes through
+     * {@link #notifyPermissionsChange(int, String[], int[])} or the application returns to the
+     * foreground, since that is the only time the user can change it in the system Settings.
+     *
      * @param context    the Context necessary to check the permission
      * @param permission the permission to check
      * @return true if you have been granted the permission, false otherwise
      */
     @SuppressWarnings("unused")
-    public synchronized boolean hasPermission(@Nullable Context context, @NonNull String permission) {
-        return context != null && (ActivityCompat.checkSelfPermission(context, permission)
-            == PackageManager.PERMISSION_GRANTED || !mPermissions.contains(permission));
+    public boolean hasPermission(@Nullable Context context, @NonNull String permission) {
+        if (context == null) {
+            return false;
+        }
+        int id = PlatformPermissions.intern(permission);
+        return !isAvailable(id) || isGranted(context, id);
     }
 
     /**
@@ -183,15 +553,297 @@ public class PermissionsManager {
      * @return true if you have been granted all the permissions, false otherwise
      */
     @SuppressWarnings("unused")
-    public synchronized boolean hasAllPermissions(@Nullable Context context, @NonNull String[] permissions) {
+    public boolean hasAllPermissions(@Nullable Context context, @NonNull String[] permissions) {
         if (context == null) {
             return false;
         }
-        boolean hasAllPermissions = true;
         for (String perm : permissions) {
-            hasAllPermissions &= hasPermission(context, perm);
+            if (!hasPermission(context, perm)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method can be used to check whether or not you have all the permissions of a
+     * {@link PermissionRequest}. Since the request has already been looked up in the platform
+     * table, this does not allocate and returns as soon as a permission is found to be missing.
+     * If you pass in a null Context object, it will return false as otherwise it cannot check the
+     * permission.
+     *
+     * @param context the Context necessary to check the permission
+     * @param request the permissions to check
+     * @return true if you have been granted all the permissions, false otherwise
+     */
+    @SuppressWarnings("unused")
+    public boolean hasAllPermissions(@Nullable Context context, @NonNull PermissionRequest request) {
+        if (context == null) {
+            return false;
+        }
+        for (int id : request.ids) {
+            if (isAvailable(id) && !isGranted(context, id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an immutable snapshot of the grant state of every permission declared in the
+     * application manifest. The snapshot is refreshed incrementally: only the permissions
+     * whose state may have changed since the last snapshot, because of a permissions result
+     * or the application returning to the foreground, are checked again. If nothing has
+     * changed, the previous snapshot is returned without checking anything.
+     *
+     * @param context the Context necessary to check the permissions.
+     * @return a snapshot of the state of the manifest permissions.
+     */
+    @NonNull
+    @SuppressWarnings("unused")
+    public PermissionSnapshot snapshot(@NonNull Context context) {
+        registerForegroundTracker(context);
+        ManifestPermissions manifest = getManifestPermissions(context);
+        byte[] states = mGrantStates.getStates();
+        PermissionSnapshot snapshot = mShared.snapshot;
+        if (snapshot != null && snapshot.states == states && snapshot.isOf(manifest)) {
+            return snapshot;
+        }
+        byte[] patched = null;
+        PermissionsTracer tracer = Tracing.sTracer;
+        tracer.beginSection(Tracing.CHECK_PERMISSIONS);
+        try {
+            for (int id : manifest.ids) {
+                if (isAvailable(id) && states[id] == GrantStateCache.UNKNOWN) {
+                    boolean granted = checkPermission(context, id);
+                    if (patched == null) {
+                        patched = states.clone();
+                    }
+                    patched[id] = (byte) (granted ? GrantStateCache.GRANTED : GrantStateCache.DENIED);
+                }
+            }
+        } finally {
+            tracer.endSection();
+        }
+        if (patched != null) {
+            byte[] current = mGrantStates.getStates();
+            // The cache holds the same states now, unless they changed while checking
+            states = Arrays.equals(current, patched) ? current : patched;
+        }
+        snapshot = new PermissionSnapshot(manifest, states, mPlatform.getSdkInt());
+        mShared.snapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Invalidates the cached grant state of every permission. The cache is kept up to date
+     * automatically for requests made through the PermissionsManager, so this only needs to
+     * be called if you request permissions without notifying the PermissionsManager.
+     */
+    @SuppressWarnings("unused")
+    public void invalidatePermissionsCache() {
+        mGrantStates.invalidate();
+    }
+
+    /**
+     * @param id the id of the permission, may be {@link PlatformPermissions#NO_ID}.
+     * @return true if the permission may exist on the Android version of the platform.
+     */
+    private boolean isAvailable(int id) {
+        return PlatformPermissions.isAvailable(id, mPlatform.getSdkInt());
+    }
+
+    /**
+     * Checks whether the platform permission is granted, using the cached state if there is one.
+     *
+     * @param context the Context necessary to check the permission.
+     * @param id      the id of an available platform permission.
+     * @return true if the permission is granted, false otherwise.
+     */
+    private boolean isGranted(@NonNull Context context, int id) {
+        registerForegroundTracker(context);
+        int state = mGrantStates.get(id);
+        PermissionsMetrics metrics = mShared.metrics;
+        if (metrics != PermissionsMetrics.NONE) {
+            metrics.onPermissionChecked(PlatformPermissions.nameOf(id), state != GrantStateCache.UNKNOWN);
+        }
+        if (state != GrantStateCache.UNKNOWN) {
+            return state == GrantStateCache.GRANTED;
+        }
+        return checkPermission(context, id);
+    }
+
+    /**
+     * Checks whether the platform permission is granted by asking the system,
+     * and stores the result in the cache.
+     *
+     * @param context the Context necessary to check the permission.
+     * @param id      the id of an available platform permission.
+     * @return true if the permission is granted, false otherwise.
+     */
+    private boolean checkPermission(@NonNull Context context, int id) {
+        PermissionsTracer tracer = Tracing.sTracer;
+        tracer.beginSection(Tracing.CHECK_SELF_PERMISSION);
+        boolean granted;
+        try {
+            granted = mPlatform.checkSelfPermission(context, PlatformPermissions.nameOf(id))
+                == PackageManager.PERMISSION_GRANTED;
+        } finally {
+            tracer.endSection();
+        }
+        mGrantStates.put(id, granted);
+        if (granted) {
+            mPermanentDenials.remove(id);
+        }
+        return granted;
+    }
+
+    /**
+     * Registers a {@link ForegroundTracker} with the application the first time it is called
+     * so that the grant state cache is invalidated every time the application returns to the
+     * foreground. If it is called with an Activity, that Activity is counted as started, since
+     * the first check is often made once it is showing. Before Android M permissions cannot
+     * change while installed, so there is nothing to track.
+     *
+     * @param context a Context used to get the application.
+     */
+    private void registerForegroundTracker(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH
+            || mPlatform.getSdkInt() < Build.VERSION_CODES.M
+            || mShared.foregroundTrackerRegistered.get()) {
+            return;
+        }
+        final Context applicationContext = context.getApplicationContext();
+        if (applicationContext instanceof Application
+            && mShared.foregroundTrackerRegistered.compareAndSet(false, true)) {
+            Activity started = context instanceof Activity ? (Activity) context : null;
+            ((Application) applicationContext).registerActivityLifecycleCallbacks(
+                new ForegroundTracker(new ForegroundTracker.Listener() {
+                    @Override
+                    public void onForeground(@NonNull Activity activity) {
+                        mGrantStates.invalidate();
+                        revalidatePermanentDenials(activity);
+                        refreshObservers(applicationContext);
+                    }
+                }, started));
+        }
+    }
+
+    /**
+     * Forgets the permanent denial of every permission that the user has since granted,
+     * or denied again without "don't ask again", in the system Settings. Called on the
+     * main thread when the application returns to the foreground.
+     *
+     * @param activity the Activity necessary to check the permissions.
+     */
+    private void revalidatePermanentDenials(@NonNull Activity activity) {
+        long[] denied = mPermanentDenials.get();
+        for (int id = PermissionBits.nextSetBit(denied, 0); id >= 0; id = PermissionBits.nextSetBit(denied, id + 1)) {
+            if (checkPermission(activity, id)
+                || mPlatform.shouldShowRequestPermissionRationale(activity, PlatformPermissions.nameOf(id))) {
+                mPermanentDenials.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Registers an observer that is notified when the grant state of the permission changes,
+     * which replaces checking the permission every time a screen is resumed. The state of
+     * every observed permission is checked once when the application returns to the
+     * foreground, and observers are only notified of the permissions that changed. Results of
+     * permissions requests also notify the observers. Observers are held strongly, so they
+     * must be unregistered with {@link #unregisterObserver(PermissionObserver)}.
+     *
+     * @param context    the Context necessary to check the permission.
+     * @param permission the permission to observe.
+     * @param observer   the observer to notify on the main thread.
+     */
+    @SuppressWarnings("unused")
+    public void registerObserver(@NonNull Context context,
+                                 @NonNull String permission,
+                                 @NonNull PermissionObserver observer) {
+        registerObserver(context, new String[]{permission}, observer);
+    }
+
+    /**
+     * Registers an observer that is notified when the grant state of any of the permissions
+     * changes. Registering the same observer again adds the permissions to the ones it already
+     * observes. See {@link #registerObserver(Context, String, PermissionObserver)}.
+     *
+     * @param context     the Context necessary to check the permissions.
+     * @param permissions the permissions to observe.
+     * @param observer    the observer to notify on the main thread.
+     */
+    @SuppressWarnings("unused")
+    public void registerObserver(@NonNull Context context,
+                                 @NonNull String[] permissions,
+                                 @NonNull PermissionObserver observer) {
+        registerForegroundTracker(context);
+        long[] ids = PermissionBits.create();
+        for (String permission : permissions) {
+            int id = PlatformPermissions.intern(permission);
+            // Permissions that are not available can never change
+            if (isAvailable(id)) {
+                PermissionBits.set(ids, id);
+            }
+        }
+        PermissionObservers observers = mShared.observers;
+        synchronized (observers) {
+            observers.add(observer, ids);
+            for (int id = PermissionBits.nextSetBit(ids, 0); id >= 0; id = PermissionBits.nextSetBit(ids, id + 1)) {
+                if (!observers.isKnown(id)) {
+                    observers.update(id, isGranted(context, id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregisters the observer from all the permissions it observes.
+     *
+     * @param observer the observer to unregister.
+     */
+    @SuppressWarnings("unused")
+    public void unregisterObserver(@NonNull PermissionObserver observer) {
+        PermissionObservers observers = mShared.observers;
+        synchronized (observers) {
+            observers.remove(observer);
+        }
+    }
+
+    /**
+     * Checks every observed permission once and notifies the observers of the permissions
+     * whose state differs from the last known state. Called on the main thread when the
+     * application returns to the foreground.
+     *
+     * @param context the Context necessary to check the permissions.
+     */
+    private void refreshObservers(@NonNull Context context) {
+        Runnable notification;
+        PermissionObservers observers = mShared.observers;
+        synchronized (observers) {
+            if (observers.isEmpty()) {
+                return;
+            }
+            long[] observed = observers.getObserved();
+            long[] changed = PermissionBits.create();
+            PermissionsTracer tracer = Tracing.sTracer;
+            tracer.beginSection(Tracing.CHECK_PERMISSIONS);
+            try {
+                for (int id = PermissionBits.nextSetBit(observed, 0); id >= 0; id = PermissionBits.nextSetBit(observed, id + 1)) {
+                    if (observers.update(id, checkPermission(context, id))) {
+                        PermissionBits.set(changed, id);
+                    }
+                }
+            } finally {
+                tracer.endSection();
+            }
+            notification = observers.notificationFor(changed);
+        }
+        // Observers are notified outside of the lock so that they can call back into the manager
+        if (notification != null) {
+            notification.run();
         }
-        return hasAllPermissions;
     }
 
     /**
@@ -209,13 +861,15 @@ public class PermissionsManager {
      * @param action   the PermissionsResultAction used to notify you of permissions being accepted.
      */
     @SuppressWarnings("unused")
-    public synchronized void requestAllManifestPermissionsIfNecessary(final @Nullable Activity activity,
-                                                                      final @Nullable PermissionsResultAction action) {
-        if (activity == null) {
-            return;
+    public void requestAllManifestPermissionsIfNecessary(final @Nullable Activity activity,
+                                                         final @Nullable PermissionsResultAction action) {
+        synchronized (mShared) {
+            if (activity == null) {
+                return;
+            }
+            ManifestPermissions manifest = getManifestPermissions(activity);
+            requestPermissionsIfNecessaryForResult(activity, null, manifest.permissions, manifest.ids, action);
         }
-        String[] perms = getManifestPermissions(activity);
-        requestPermissionsIfNecessaryForResult(activity, perms, action);
     }
 
     /**
@@ -224,6 +878,8 @@ public class PermissionsManager {
      * they need to be requested (i.e. we don't have permission yet) and will add the
      * PermissionsResultAction to the queue to be notified of permissions being granted or
      * denied. In the case of pre-Android Marshmallow, permissions will be granted immediately.
+     * Only one permissions request is made at a time, if a request is already showing then
+     * the permissions are requested together with any others as soon as it finishes.
      * The Activity variable is nullable, but if it is null, the method will fail to execute.
      * This is only nullable as a courtesy for Fragments where getActivity() may yeild null
      * if the Fragment is not currently added to its parent Activity.
@@ -233,25 +889,15 @@ public class PermissionsManager {
      * @param action      the PermissionsResultAction to notify when the permissions are granted or denied.
      */
     @SuppressWarnings("unused")
-    public synchronized void requestPermissionsIfNecessaryForResult(@Nullable Activity activity,
-                                                                    @NonNull String[] permissions,
-                                                                    @Nullable PermissionsResultAction action) {
-        if (activity == null) {
-            return;
-        }
-        addPendingAction(permissions, action);
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-            doPermissionWorkBeforeAndroidM(activity, permissions, action);
-        } else {
-            List<String> permList = getPermissionsListToRequest(activity, permissions, action);
-            if (permList.isEmpty()) {
-                //if there is no permission to request, there is no reason to keep the action int the list
-                removePendingAction(action);
-            } else {
-                String[] permsToRequest = permList.toArray(new String[permList.size()]);
-                mPendingRequests.addAll(permList);
-                ActivityCompat.requestPermissions(activity, permsToRequest, 1);
+    public void requestPermissionsIfNecessaryForResult(@Nullable Activity activity,
+                                                       @NonNull String[] permissions,
+                                                       @Nullable PermissionsResultAction action) {
+        synchronized (mShared) {
+            if (activity == null) {
+                return;
             }
+            requestPermissionsIfNecessaryForResult(activity, null, permissions,
+                PlatformPermissions.idsOf(permissions), action);
         }
     }
 
@@ -261,6 +907,8 @@ public class PermissionsManager {
      * they need to be requested (i.e. we don't have permission yet) and will add the
      * PermissionsResultAction to the queue to be notified of permissions being granted or
      * denied. In the case of pre-Android Marshmallow, permissions will be granted immediately.
+     * Only one permissions request is made at a time, if a request is already showing then
+     * the permissions are requested together with any others as soon as it finishes.
      * The Fragment variable is used, but if {@link Fragment#getActivity()} returns null, this method
      * will fail to work as the activity reference is necessary to check for permissions.
      *
@@ -269,27 +917,305 @@ public class PermissionsManager {
      * @param action      the PermissionsResultAction to notify when the permissions are granted or denied.
      */
     @SuppressWarnings("unused")
-    public synchronized void requestPermissionsIfNecessaryForResult(@NonNull Fragment fragment,
-                                                                    @NonNull String[] permissions,
-                                                                    @Nullable PermissionsResultAction action) {
-        Activity activity = fragment.getActivity();
-        if (activity == null) {
-            return;
+    public void requestPermissionsIfNecessaryForResult(@NonNull Fragment fragment,
+                                                       @NonNull String[] permissions,
+                                                       @Nullable PermissionsResultAction action) {
+        synchronized (mShared) {
+            Activity activity = fragment.getActivity();
+            if (activity == null) {
+                return;
+            }
+            requestPermissionsIfNecessaryForResult(activity, fragment, permissions,
+                PlatformPermissions.idsOf(permissions), action);
+        }
+    }
+
+    /**
+     * This method should be used to execute a {@link PermissionsResultAction} for the
+     * permissions of a {@link PermissionRequest}. It behaves the same as
+     * {@link #requestPermissionsIfNecessaryForResult(Activity, String[], PermissionsResultAction)},
+     * except that the permissions have already been looked up in the platform table, and if
+     * all of them are already granted the action is completed without allocating or querying
+     * the system.
+     *
+     * @param activity the activity necessary to request the permissions.
+     * @param request  the permissions to request for the {@link PermissionsResultAction}.
+     * @param action   the PermissionsResultAction to notify when the permissions are granted or denied.
+     */
+    @SuppressWarnings("unused")
+    public void requestPermissionsIfNecessaryForResult(@Nullable Activity activity,
+                                                       @NonNull PermissionRequest request,
+                                                       @Nullable PermissionsResultAction action) {
+        synchronized (mShared) {
+            if (activity == null || completeIfGranted(activity, request, action)) {
+                return;
+            }
+            requestPermissionsIfNecessaryForResult(activity, null, request.permissions, request.ids, action);
         }
-        addPendingAction(permissions, action);
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-            doPermissionWorkBeforeAndroidM(activity, permissions, action);
+    }
+
+    /**
+     * This method should be used to execute a {@link PermissionsResultAction} for the
+     * permissions of a {@link PermissionRequest}. It behaves the same as
+     * {@link #requestPermissionsIfNecessaryForResult(Fragment, String[], PermissionsResultAction)},
+     * except that the permissions have already been looked up in the platform table, and if
+     * all of them are already granted the action is completed without allocating or querying
+     * the system.
+     *
+     * @param fragment the fragment necessary to request the permissions.
+     * @param request  the permissions to request for the {@link PermissionsResultAction}.
+     * @param action   the PermissionsResultAction to notify when the permissions are granted or denied.
+     */
+    @SuppressWarnings("unused")
+    public void requestPermissionsIfNecessaryForResult(@NonNull Fragment fragment,
+                                                       @NonNull PermissionRequest request,
+                                                       @Nullable PermissionsResultAction action) {
+        synchronized (mShared) {
+            Activity activity = fragment.getActivity();
+            if (activity == null || completeIfGranted(activity, request, action)) {
+                return;
+            }
+            requestPermissionsIfNecessaryForResult(activity, fragment, request.permissions, request.ids, action);
+        }
+    }
+
+    /**
+     * Completes the action right away if every permission of the request is already granted.
+     *
+     * @param context the Context necessary to check the permissions.
+     * @param request the permissions to check.
+     * @param action  the action to complete, may be null.
+     * @return true if every permission is granted, false if they need to be requested.
+     */
+    private boolean completeIfGranted(@NonNull Context context,
+                                      @NonNull PermissionRequest request,
+                                      @Nullable PermissionsResultAction action) {
+        if (!hasAllPermissions(context, request)) {
+            return false;
+        }
+        if (action != null) {
+            action.registerPermissions(request.permissions, request.ids);
+            for (int n = 0; n < request.permissions.length; n++) {
+                int id = request.ids[n];
+                Permissions result = isAvailable(id) ? Permissions.GRANTED : Permissions.NOT_FOUND;
+                if (action.onResult(id, request.permissions[n], result)) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method requests the permissions that have not been granted yet and returns a
+     * {@link PermissionsFuture} that completes with the result of every permission once they
+     * are all known. Unlike a {@link PermissionsResultAction}, the future does not stop at the
+     * first denial, so there is no need to check each permission again afterwards.
+     *
+     * @param activity    the activity necessary to request the permissions.
+     * @param permissions the permissions to request.
+     * @return a future that completes with the result of every permission.
+     */
+    @NonNull
+    @SuppressWarnings("unused")
+    public PermissionsFuture requestPermissionsIfNecessary(@NonNull Activity activity,
+                                                           @NonNull String[] permissions) {
+        synchronized (mShared) {
+            PermissionsFuture future = new PermissionsFuture();
+            AggregateAction action = new AggregateAction(future, permissions);
+            future.setAction(action);
+            requestPermissionsIfNecessaryForResult(activity, null, permissions,
+                PlatformPermissions.idsOf(permissions), action);
+            return future;
+        }
+    }
+
+    /**
+     * This method requests the permissions that have not been granted yet and returns a
+     * {@link PermissionsFuture} that completes with the result of every permission once they
+     * are all known. If {@link Fragment#getActivity()} returns null, the permissions cannot be
+     * requested and the returned future is cancelled.
+     *
+     * @param fragment    the fragment necessary to request the permissions.
+     * @param permissions the permissions to request.
+     * @return a future that completes with the result of every permission.
+     */
+    @NonNull
+    @SuppressWarnings("unused")
+    public PermissionsFuture requestPermissionsIfNecessary(@NonNull Fragment fragment,
+                                                           @NonNull String[] permissions) {
+        synchronized (mShared) {
+            PermissionsFuture future = new PermissionsFuture();
+            Activity activity = fragment.getActivity();
+            if (activity == null) {
+                future.cancel(false);
+                return future;
+            }
+            AggregateAction action = new AggregateAction(future, permissions);
+            future.setAction(action);
+            requestPermissionsIfNecessaryForResult(activity, fragment, permissions,
+                PlatformPermissions.idsOf(permissions), action);
+            return future;
+        }
+    }
+
+    /**
+     * Requests the permissions that have not been granted yet from the Fragment if there
+     * is one, or from the Activity otherwise.
+     *
+     * @param activity    the activity necessary to check and request the permissions.
+     * @param fragment    the fragment to request the permissions from, may be null.
+     * @param permissions the list of permissions to request for the {@link PermissionsResultAction}.
+     * @param ids         the ids of the permissions in the platform table.
+     * @param action      the PermissionsResultAction to notify when the permissions are granted or denied.
+     */
+    private void requestPermissionsIfNecessaryForResult(@NonNull Activity activity,
+                                                        @Nullable Fragment fragment,
+                                                        @NonNull String[] permissions,
+                                                        @NonNull int[] ids,
+                                                        @Nullable PermissionsResultAction action) {
+        removeCollectedActions();
+        expirePending();
+        RequestHost host = fragment != null
+            ? RequestHost.of(mPlatform, fragment) : RequestHost.of(mPlatform, activity);
+        // A request restored by a recreated Activity is adopted by the first request it makes
+        mRequestScheduler.adoptInFlight(host);
+        finishAbandonedRequest();
+        if (action != null) {
+            action.registerPermissions(permissions, ids);
+        }
+        PermissionsTracer tracer = Tracing.sTracer;
+        if (mPlatform.getSdkInt() < Build.VERSION_CODES.M) {
+            tracer.beginSection(Tracing.CHECK_PERMISSIONS);
+            try {
+                doPermissionWorkBeforeAndroidM(activity, permissions, ids, action);
+            } finally {
+                tracer.endSection();
+            }
         } else {
-            List<String> permList = getPermissionsListToRequest(activity, permissions, action);
-            if (permList.isEmpty()) {
-                //if there is no permission to request, there is no reason to keep the action int the list
-                removePendingAction(action);
+            long[] waiting = PermissionBits.create();
+            long[] permList;
+            tracer.beginSection(Tracing.CHECK_PERMISSIONS);
+            try {
+                permList = getPermissionsListToRequest(activity, permissions, ids, action, waiting);
+            } finally {
+                tracer.endSection();
+            }
+            if (action != null) {
+                addPendingAction(waiting, action);
+            }
+            if (!PermissionBits.isEmpty(permList)) {
+                mRequestScheduler.schedule(host, permList);
+            }
+            scheduleSweep();
+        }
+    }
+
+    /**
+     * Saves the permissions request in flight if it was made from the Activity, or one of
+     * its Fragments, so that it can be restored with {@link #restoreInstanceState(Bundle)}
+     * if the Activity or the process is recreated while the permissions dialog is showing.
+     * This should be called from {@link Activity#onSaveInstanceState(Bundle)}. Only the request
+     * code and the permissions are saved, the actions have to be registered again.
+     *
+     * @param activity the Activity whose state is being saved.
+     * @param outState the Bundle passed to onSaveInstanceState().
+     */
+    @SuppressWarnings("unused")
+    public void saveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+        synchronized (mShared) {
+            if (!mRequestScheduler.isInFlightFrom(activity)) {
+                return;
+            }
+            Bundle state = new Bundle();
+            state.putInt(STATE_REQUEST_CODE, mRequestScheduler.getInFlightCode());
+            // The names are saved rather than the ids, which can differ in the next process
+            state.putStringArray(STATE_PERMISSIONS, PermissionBits.toNames(mRequestScheduler.getInFlight()));
+            state.putLong(STATE_SINCE, mRequestScheduler.getInFlightSince());
+            state.putInt(STATE_NEXT_REQUEST_CODE, mRequestScheduler.getNextRequestCode());
+            outState.putBundle(STATE_KEY, state);
+        }
+    }
+
+    /**
+     * Restores the permissions request that was in flight when the state was saved with
+     * {@link #saveInstanceState(Activity, Bundle)}. This should be called from
+     * {@link Activity#onCreate(Bundle)} before requesting any permissions. When the
+     * process has been recreated, the permissions of that request are then not requested
+     * again, and the PermissionsResultAction objects that request them again wait for the
+     * result of the original request, which is matched by its request code. When only the
+     * Activity has been recreated, e.g. by a rotation while the dialog is showing, the
+     * request stays in flight and is moved to the first Activity that makes a request,
+     * rather than being timed out once the old Activity is gone. Nothing is restored if
+     * another request is in flight.
+     *
+     * @param savedInstanceState the Bundle passed to onCreate(), may be null.
+     */
+    @SuppressWarnings("unused")
+    public void restoreInstanceState(@Nullable Bundle savedInstanceState) {
+        synchronized (mShared) {
+            Bundle state = savedInstanceState != null ? savedInstanceState.getBundle(STATE_KEY) : null;
+            String[] permissions = state != null ? state.getStringArray(STATE_PERMISSIONS) : null;
+            if (permissions == null) {
+                return;
+            }
+            if (mRequestScheduler.restoreInFlight(state.getInt(STATE_REQUEST_CODE, RequestScheduler.NO_REQUEST),
+                PermissionBits.fromIds(PlatformPermissions.idsOf(permissions)),
+                state.getLong(STATE_SINCE, mPlatform.getUptimeMillis()),
+                state.getInt(STATE_NEXT_REQUEST_CODE, RequestScheduler.NO_REQUEST))) {
+                scheduleSweep();
+            }
+        }
+    }
+
+    /**
+     * This method notifies the PermissionsManager that the permissions have change. If you are making
+     * the permissions requests using an Activity, then this method should be called from the
+     * Activity callback onRequestPermissionsResult() with the variables passed to that method. If
+     * you are passing a Fragment to make the permissions request, then you should call this in
+     * the {@link Fragment#onRequestPermissionsResult(int, String[], int[])} method.
+     * It will notify the pending PermissionsResultAction objects waiting on each of the
+     * permissions. Without a request code the result cannot be matched to a request, so the
+     * request in flight is only finished, and the next queued permissions request made, if
+     * the result has an answer for every permission of the request in flight.
+     *
+     * @param permissions the permissions that have changed.
+     * @param results     the values for each permission.
+     * @deprecated use {@link #notifyPermissionsChange(int, String[], int[])}, which tells the
+     * results of requests that were not made by the PermissionsManager apart.
+     */
+    @Deprecated
+    @SuppressWarnings("unused")
+    public void notifyPermissionsChange(@NonNull String[] permissions, @NonNull int[] results) {
+        synchronized (mShared) {
+            removeCollectedActions();
+            expirePending();
+            if (answersInFlight(permissions, results)) {
+                dispatchResults(permissions, results, false);
             } else {
-                String[] permsToRequest = permList.toArray(new String[permList.size()]);
-                mPendingRequests.addAll(permList);
-                fragment.requestPermissions(permsToRequest, 1);
+                updateGrantStates(permissions, results, true);
+            }
+        }
+    }
+
+    /**
+     * @param permissions the permissions of a result.
+     * @param results     the values for each permission.
+     * @return true if a request is in flight and the result has a value for each of its permissions.
+     */
+    private boolean answersInFlight(@NonNull String[] permissions, @NonNull int[] results) {
+        long[] remaining = mRequestScheduler.getInFlight();
+        if (PermissionBits.isEmpty(remaining)) {
+            return false;
+        }
+        int size = Math.min(permissions.length, results.length);
+        for (int n = 0; n < size; n++) {
+            int id = PlatformPermissions.idOf(permissions[n]);
+            if (id != PlatformPermissions.NO_ID) {
+                PermissionBits.clear(remaining, id);
             }
         }
+        return PermissionBits.isEmpty(remaining);
     }
 
     /**
@@ -298,30 +1224,212 @@ public class PermissionsManager {
      * Activity callback onRequestPermissionsResult() with the variables passed to that method. If
      * you are passing a Fragment to make the permissions request, then you should call this in
      * the {@link Fragment#onRequestPermissionsResult(int, String[], int[])} method.
-     * It will notify all the pending PermissionsResultAction objects currently
-     * in the queue, and will remove the permissions request from the list of pending requests.
+     * Every request made by the PermissionsManager has its own request code, so results of
+     * requests made elsewhere, or results that arrive after their request timed out, only
+     * update the cached grant state and the observers of the permissions. Otherwise, it will
+     * notify the PermissionsResultAction objects waiting on the permissions of that request,
+     * and will make the next queued permissions request if there is one.
      *
+     * @param requestCode the request code passed to onRequestPermissionsResult().
      * @param permissions the permissions that have changed.
      * @param results     the values for each permission.
      */
     @SuppressWarnings("unused")
-    public synchronized void notifyPermissionsChange(@NonNull String[] permissions, @NonNull int[] results) {
-        int size = permissions.length;
-        if (results.length < size) {
-            size = results.length;
-        }
-        Iterator<WeakReference<PermissionsResultAction>> iterator = mPendingActions.iterator();
-        while (iterator.hasNext()) {
-            PermissionsResultAction action = iterator.next().get();
+    public void notifyPermissionsChange(int requestCode,
+                                        @NonNull String[] permissions,
+                                        @NonNull int[] results) {
+        synchronized (mShared) {
+            removeCollectedActions();
+            expirePending();
+            if (mRequestScheduler.isRequestInFlight(requestCode)) {
+                dispatchResults(permissions, results, true);
+            } else {
+                updateGrantStates(permissions, results, false);
+            }
+        }
+    }
+
+    /**
+     * Updates the grant state of the permissions and notifies their observers, for results
+     * that do not finish the request in flight.
+     *
+     * @param permissions   the permissions that have changed.
+     * @param results       the values for each permission.
+     * @param notifyActions true to notify the actions waiting on the permissions as well.
+     */
+    private void updateGrantStates(@NonNull String[] permissions, @NonNull int[] results, boolean notifyActions) {
+        int pendingActions = mPendingActions.size();
+        List<PermissionsManager> managers = notifyActions ? mShared.getManagers() : null;
+        long[] reported = PermissionBits.create();
+        long[] granted = PermissionBits.create();
+        int size = Math.min(permissions.length, results.length);
+        for (int n = 0; n < size; n++) {
+            int id = PlatformPermissions.idOf(permissions[n]);
+            if (id == PlatformPermissions.NO_ID) {
+                continue;
+            }
+            boolean isGranted = results[n] == PackageManager.PERMISSION_GRANTED;
+            if (isGranted) {
+                mPermanentDenials.remove(id);
+                PermissionBits.set(granted, id);
+            }
+            mGrantStates.put(id, isGranted);
+            PermissionBits.set(reported, id);
+            if (managers != null) {
+                dispatch(managers, id, isGranted ? Permissions.GRANTED : Permissions.DENIED);
+            }
+        }
+        Runnable notification = updateObservers(reported, granted);
+        if (notification != null) {
+            mPlatform.postDelayed(notification, 0);
+        }
+        reportPendingActions(pendingActions);
+    }
+
+    /**
+     * Updates the grant state of the permissions, notifies the actions waiting on them
+     * and finishes the request in flight.
+     *
+     * @param permissions  the permissions that have changed.
+     * @param results      the values for each permission.
+     * @param onlyInFlight true to only notify actions of the permissions in the request in flight.
+     */
+    private void dispatchResults(@NonNull String[] permissions, @NonNull int[] results, boolean onlyInFlight) {
+        PermissionsTracer tracer = Tracing.sTracer;
+        tracer.beginSection(Tracing.DISPATCH_RESULTS);
+        try {
+            PermissionsMetrics metrics = mShared.metrics;
+            long start = metrics != PermissionsMetrics.NONE ? System.nanoTime() : 0;
+            int pendingActions = mPendingActions.size();
+            List<PermissionsManager> managers = mShared.getManagers();
+            RequestHost host = mRequestScheduler.getInFlightHost();
+            long[] answered = PermissionBits.create();
+            long[] reported = PermissionBits.create();
+            long[] granted = PermissionBits.create();
+            int size = permissions.length;
+            if (results.length < size) {
+                size = results.length;
+            }
             for (int n = 0; n < size; n++) {
-                if (action == null || action.onResult(permissions[n], results[n])) {
-                    iterator.remove();
-                    break;
+                int id = PlatformPermissions.idOf(permissions[n]);
+                if (id == PlatformPermissions.NO_ID) {
+                    // Only platform permissions are ever requested, so nothing waits on others
+                    continue;
+                }
+                boolean isGranted = results[n] == PackageManager.PERMISSION_GRANTED;
+                boolean inFlight = mRequestScheduler.isPermissionInFlight(id);
+                if (!onlyInFlight || inFlight) {
+                    dispatch(managers, id, isGranted ? Permissions.GRANTED : Permissions.DENIED);
+                }
+                if (isGranted) {
+                    mPermanentDenials.remove(id);
+                } else if (inFlight && host != null && !host.shouldShowRequestPermissionRationale(permissions[n])) {
+                    // Denied in the dialog and no longer worth explaining, so it will not be shown again
+                    mPermanentDenials.add(id);
                 }
+                mGrantStates.put(id, isGranted);
+                PermissionBits.set(reported, id);
+                if (isGranted) {
+                    PermissionBits.set(granted, id);
+                }
+                if (inFlight) {
+                    PermissionBits.set(answered, id);
+                }
+            }
+            foldGroupResults(managers, host != null ? host.getContext() : null, answered, reported, granted);
+            Runnable notification = updateObservers(reported, granted);
+            if (notification != null) {
+                // Posted so that the observers are not notified while holding the lock
+                mPlatform.postDelayed(notification, 0);
             }
+            if (metrics != PermissionsMetrics.NONE) {
+                metrics.onResultsDispatched(size, System.nanoTime() - start);
+                reportPendingActions(pendingActions);
+            }
+            mRequestScheduler.onRequestFinished();
+            scheduleSweep();
+        } finally {
+            tracer.endSection();
         }
-        for (int n = 0; n < size; n++) {
-            mPendingRequests.remove(permissions[n]);
+    }
+
+    /**
+     * Checks the permissions that share a runtime group with a granted permission of the
+     * request in flight. Before Android O granting one permission of a group grants the rest
+     * of the group, so the queued permissions of the group and those cached as denied are
+     * checked again, which is cheaper than a request. Only the ones the system reports as
+     * granted are answered, the others stay queued. A denial never answers the rest of its
+     * group. From Android O the rest of a group is only granted once it is requested, and the
+     * groups differ from the generated ones, so nothing is folded then.
+     *
+     * @param managers the managers sharing the request in flight.
+     * @param context  the Context to check the permissions with, may be null.
+     * @param answered the ids of the permissions of the request in flight that have a result.
+     * @param reported the ids of the permissions with a result, the checked ones are added.
+     * @param granted  the ids of the granted permissions, the checked ones that are granted are added.
+     */
+    private void foldGroupResults(@NonNull List<PermissionsManager> managers,
+                                  @Nullable Context context,
+                                  @NonNull long[] answered,
+                                  @NonNull long[] reported,
+                                  @NonNull long[] granted) {
+        // The generated groups are those of the platform before Android O, see permission-table.gradle
+        if (context == null || mPlatform.getSdkInt() >= ANDROID_O) {
+            return;
+        }
+        // There are only a handful of runtime groups, so the ones already folded fit in a long
+        long folded = 0;
+        for (int id = PermissionBits.nextSetBit(answered, 0); id >= 0; id = PermissionBits.nextSetBit(answered, id + 1)) {
+            int group = PermissionGroups.groupOf(id);
+            if (group == PermissionGroups.NO_GROUP || !PermissionBits.get(granted, id)
+                || (folded & (1L << group)) != 0) {
+                continue;
+            }
+            folded |= 1L << group;
+            long[] members = PermissionGroups.membersOf(group);
+            for (int member = PermissionBits.nextSetBit(members, 0); member >= 0; member = PermissionBits.nextSetBit(members, member + 1)) {
+                if (PermissionBits.get(answered, member) || !isAvailable(member)) {
+                    continue;
+                }
+                boolean queued = mRequestScheduler.isQueued(member);
+                if (!queued && mGrantStates.getStates()[member] != GrantStateCache.DENIED) {
+                    continue;
+                }
+                PermissionBits.set(reported, member);
+                if (checkPermission(context, member)) {
+                    PermissionBits.set(granted, member);
+                    if (queued) {
+                        mPlatform.logDebug(TAG, "Granted " + PlatformPermissions.nameOf(member)
+                            + " with " + PermissionGroups.nameOf(group));
+                        mRequestScheduler.removeQueued(member);
+                        dispatch(managers, member, Permissions.GRANTED);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the last known state of the observed permissions from the results.
+     *
+     * @param reported the ids of the permissions that have a result.
+     * @param granted  the ids of the permissions that were granted.
+     * @return the notification of the observers of the permissions that changed, or null.
+     */
+    @Nullable
+    private Runnable updateObservers(@NonNull long[] reported, @NonNull long[] granted) {
+        PermissionObservers observers = mShared.observers;
+        synchronized (observers) {
+            if (observers.isEmpty()) {
+                return null;
+            }
+            long[] changed = PermissionBits.create();
+            for (int id = PermissionBits.nextSetBit(reported, 0); id >= 0; id = PermissionBits.nextSetBit(reported, id + 1)) {
+                if (observers.update(id, PermissionBits.get(granted, id))) {
+                    PermissionBits.set(changed, id);
+                }
+            }
+            return observers.notificationFor(changed);
         }
     }
 
@@ -331,21 +1439,24 @@ public class PermissionsManager {
      *
      * @param activity    the activity to check permissions
      * @param permissions the permissions names
+     * @param ids         the ids of the permissions in the platform table
      * @param action      the callback work object, containing what we what to do after
      *                    permission check
      */
     private void doPermissionWorkBeforeAndroidM(@NonNull Activity activity,
                                                 @NonNull String[] permissions,
+                                                @NonNull int[] ids,
                                                 @Nullable PermissionsResultAction action) {
-        for (String perm : permissions) {
+        for (int n = 0; n < permissions.length; n++) {
+            String perm = permissions[n];
             if (action != null) {
-                if (!mPermissions.contains(perm)) {
-                    action.onResult(perm, Permissions.NOT_FOUND);
-                } else if (ActivityCompat.checkSelfPermission(activity, perm)
-                    != PackageManager.PERMISSION_GRANTED) {
-                    action.onResult(perm, Permissions.DENIED);
+                int id = ids[n];
+                if (!isAvailable(id)) {
+                    action.onResult(id, perm, Permissions.NOT_FOUND);
+                } else if (!isGranted(activity, id)) {
+                    action.onResult(id, perm, Permissions.DENIED);
                 } else {
-                    action.onResult(perm, Permissions.GRANTED);
+                    action.onResult(id, perm, Permissions.GRANTED);
                 }
             }
         }
@@ -353,34 +1464,58 @@ public class PermissionsManager {
 
     /**
      * Filter the permissions list:
-     * If a permission is not granted, add it to the result list
+     * If a permission is not granted, add it to the result list unless it has already been requested
+     * if a permission has been denied permanently, do the denied work, do not add it to the result list
      * if a permission is granted, do the granted work, do not add it to the result list
+     * Every permission that is not granted is added to the waiting list until the action completes
      *
      * @param activity    the activity to check permissions
      * @param permissions all the permissions names
+     * @param ids         the ids of the permissions in the platform table
      * @param action      the callback work object, containing what we what to do after
      *                    permission check
-     * @return a list of permissions names that are not granted yet
+     * @param waiting     the set to add the ids of the permissions the action has to wait on to
+     * @return the set of ids of the permissions that are not granted yet
      */
     @NonNull
-    private List<String> getPermissionsListToRequest(@NonNull Activity activity,
-                                                     @NonNull String[] permissions,
-                                                     @Nullable PermissionsResultAction action) {
-        List<String> permList = new ArrayList<>(permissions.length);
-        for (String perm : permissions) {
-            if (!mPermissions.contains(perm)) {
+    private long[] getPermissionsListToRequest(@NonNull Activity activity,
+                                               @NonNull String[] permissions,
+                                               @NonNull int[] ids,
+                                               @Nullable PermissionsResultAction action,
+                                               @NonNull long[] waiting) {
+        long[] permList = PermissionBits.create();
+        for (int n = 0; n < permissions.length; n++) {
+            String perm = permissions[n];
+            int id = ids[n];
+            boolean completed = false;
+            if (!isAvailable(id)) {
                 if (action != null) {
-                    action.onResult(perm, Permissions.NOT_FOUND);
+                    completed = action.onResult(id, perm, Permissions.NOT_FOUND);
                 }
-            } else if (ActivityCompat.checkSelfPermission(activity, perm) != PackageManager.PERMISSION_GRANTED) {
-                if (!mPendingRequests.contains(perm)) {
-                    permList.add(perm);
+            } else if (!isGranted(activity, id)) {
+                if (mPermanentDenials.contains(id)) {
+                    // The system would deny the request without showing it
+                    if (action != null) {
+                        completed = action.onResult(id, perm, Permissions.DENIED_PERMANENTLY);
+                    }
+                } else {
+                    if (!mRequestScheduler.isPending(id)) {
+                        PermissionBits.set(permList, id);
+                    }
+                    if (action != null) {
+                        PermissionBits.set(waiting, id);
+                    }
                 }
             } else {
                 if (action != null) {
-                    action.onResult(perm, Permissions.GRANTED);
+                    completed = action.onResult(id, perm, Permissions.GRANTED);
                 }
             }
+            if (completed) {
+                // The action has its result, so it no longer waits on anything
+                action = null;
+                PermissionBits.clearAll(waiting);
+            }
         }
         return permList;
     }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A listener that the {@link PermissionsManager} reports its work to, which can be used
+ * to find out how long users spend on the permissions dialog, how often permissions are
+ * checked and how many actions are waiting on results. Set one with
+ * {@link PermissionsManager#setMetrics(PermissionsMetrics)}. The callbacks are made on the
+ * thread doing the work, often the main thread, so they should only record and return.
+ * {@link HistogramPermissionsMetrics} is an implementation that keeps everything in memory.
+ */
+public interface PermissionsMetrics {
+
+    /**
+     * The metrics used when none have been set, which ignore every callback.
+     */
+    PermissionsMetrics NONE = new PermissionsMetrics() {
+        @Override
+        public void onRequestStarted(int requestCode, @NonNull String[] permissions) {}
+
+        @Override
+        public void onRequestFinished(int requestCode, long latencyNanos) {}
+
+        @Override
+        public void onPermissionChecked(@NonNull String permission, boolean cached) {}
+
+        @Override
+        public void onResultsDispatched(int resultCount, long durationNanos) {}
+
+        @Override
+        public void onPendingActionsChanged(int pendingActions) {}
+    };
+
+    /**
+     * Called when a permissions request is shown to the user.
+     *
+     * @param requestCode the request code of the request.
+     * @param permissions the permissions being requested.
+     */
+    void onRequestStarted(int requestCode, @NonNull String[] permissions);
+
+    /**
+     * Called when the result of a permissions request has been received.
+     *
+     * @param requestCode  the request code of the request.
+     * @param latencyNanos the time from the request being shown to its result being received.
+     */
+    void onRequestFinished(int requestCode, long latencyNanos);
+
+    /**
+     * Called every time the grant state of a permission is checked.
+     *
+     * @param permission the permission that was checked.
+     * @param cached     true if the state was answered from the cache, false if
+     *                   the system had to be queried.
+     */
+    void onPermissionChecked(@NonNull String permission, boolean cached);
+
+    /**
+     * Called when the results of a request have been dispatched to the pending actions.
+     *
+     * @param resultCount   the number of permission results that were dispatched.
+     * @param durationNanos the time it took to dispatch them.
+     */
+    void onResultsDispatched(int resultCount, long durationNanos);
+
+    /**
+     * Called when the number of actions waiting on a result changes.
+     *
+     * @param pendingActions the number of actions of every PermissionsManager in the process,
+     *                       including the scoped ones, that are waiting on a result.
+     */
+    void onPendingActionsChanged(int pendingActions);
+}
@@ -21,15 +21,15 @@
 package com.anthonycr.grant;
 
 import android.content.pm.PackageManager;
-import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * This abstract class should be used to create an if/else action that the PermissionsManager
@@ -38,18 +38,25 @@ import java.util.Set;
  * requestPermissionsIfNecessaryForResult method. The result will be sent back to you as
  * either onGranted (all permissions have been granted), or onDenied (a required permission
  * has been denied). Ideally you put your functionality in the onGranted method and notify
- * the user what won't work in the onDenied method.
+ * the user what won't work in the onDenied method. The callbacks are delivered on the
+ * main Looper by default, or on the Looper or Executor passed to the constructor.
  */
 public abstract class PermissionsResultAction {
 
     private static final String TAG = PermissionsResultAction.class.getSimpleName();
-    private final Set<String> mPermissions = new HashSet<>(1);
-    private Looper mLooper = Looper.getMainLooper();
+    // Platform permissions are tracked by id, any others in the rarely used set
+    private final long[] mPermissions = PermissionBits.create();
+    @Nullable private Set<String> mOtherPermissions;
+    private int mPermissionCount = 0;
+    @Nullable private final CallbackDispatcher mDispatcher;
+    @Nullable private final Executor mExecutor;
 
     /**
      * Default Constructor
      */
-    public PermissionsResultAction() {}
+    public PermissionsResultAction() {
+        this(Looper.getMainLooper());
+    }
 
     /**
      * Alternate Constructor. Pass the looper you wish the PermissionsResultAction
@@ -60,7 +67,37 @@ public abstract class PermissionsResultAction {
      * @param looper the looper that the callbacks will be called using.
      */
     @SuppressWarnings("unused")
-    public PermissionsResultAction(@NonNull Looper looper) {mLooper = looper;}
+    public PermissionsResultAction(@NonNull Looper looper) {
+        this(CallbackDispatcher.forLooper(looper), null);
+    }
+
+    /**
+     * Alternate Constructor. Pass the executor you wish the PermissionsResultAction
+     * callbacks to be executed on. This allows the callbacks to be delivered directly
+     * to a thread pool, or synchronously by an executor that runs tasks on the calling
+     * thread. Keep in mind that a synchronous executor will run the callbacks on the
+     * thread that notifies the PermissionsManager of the permissions change, while the
+     * change is still being processed.
+     *
+     * @param executor the executor that the callbacks will be called using.
+     */
+    @SuppressWarnings("unused")
+    public PermissionsResultAction(@NonNull Executor executor) {
+        this(null, executor);
+    }
+
+    /**
+     * Constructor for actions that have neither a dispatcher nor an executor, because they
+     * handle their results themselves and never deliver the callbacks, such as an
+     * {@link AggregateAction}.
+     *
+     * @param dispatcher the dispatcher that the callbacks are delivered with, or null.
+     * @param executor   the executor that the callbacks are run on, or null.
+     */
+    PermissionsResultAction(@Nullable CallbackDispatcher dispatcher, @Nullable Executor executor) {
+        mDispatcher = dispatcher;
+        mExecutor = executor;
+    }
 
     /**
      * This method is called when ALL permissions that have been
@@ -80,6 +117,36 @@ public abstract class PermissionsResultAction {
      */
     public abstract void onDenied(String permission);
 
+    /**
+     * This method is called when the result of a permission did not arrive
+     * before the request timeout set with
+     * {@link PermissionsManager#setRequestTimeout(long, java.util.concurrent.TimeUnit)},
+     * e.g. because the Activity was destroyed while the request was showing. By default
+     * it is treated the same as the permission being denied, override this method
+     * to handle it differently. It is executed the same way as {@link #onDenied(String)}.
+     *
+     * @param permission the permission whose result did not arrive in time.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void onTimedOut(String permission) {
+        onDenied(permission);
+    }
+
+    /**
+     * This method is called instead of requesting a permission that the user has denied
+     * with "don't ask again", since the system would deny the request without showing it.
+     * The permission can then only be granted in the system Settings. By default it is
+     * treated the same as the permission being denied, override this method to handle
+     * it differently, e.g. by pointing the user to the Settings. It is executed the same
+     * way as {@link #onDenied(String)}.
+     *
+     * @param permission the permission that was denied permanently.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public void onDeniedPermanently(String permission) {
+        onDenied(permission);
+    }
+
     /**
      * This method is used to determine if a permission not
      * being present on the current Android platform should
@@ -108,12 +175,19 @@ public abstract class PermissionsResultAction {
     @SuppressWarnings("WeakerAccess")
     @CallSuper
     protected synchronized final boolean onResult(final @NonNull String permission, int result) {
+        return onResult(PlatformPermissions.idOf(permission), permission, result);
+    }
+
+    /**
+     * Same as {@link #onResult(String, int)}, but with the id of the
+     * permission already looked up in the platform table.
+     */
+    synchronized final boolean onResult(int id, @NonNull String permission, int result) {
         if (result == PackageManager.PERMISSION_GRANTED) {
-            return onResult(permission, Permissions.GRANTED);
+            return handleResult(id, permission, Permissions.GRANTED);
         } else {
-            return onResult(permission, Permissions.DENIED);
+            return handleResult(id, permission, Permissions.DENIED);
         }
-
     }
 
     /**
@@ -130,49 +204,115 @@ public abstract class PermissionsResultAction {
     @SuppressWarnings("WeakerAccess")
     @CallSuper
     protected synchronized final boolean onResult(final @NonNull String permission, Permissions result) {
-        mPermissions.remove(permission);
+        return handleResult(PlatformPermissions.idOf(permission), permission, result);
+    }
+
+    /**
+     * Same as {@link #onResult(String, Permissions)}, but with the id of the
+     * permission already looked up in the platform table.
+     */
+    synchronized final boolean onResult(int id, @NonNull String permission, Permissions result) {
+        return handleResult(id, permission, result);
+    }
+
+    /**
+     * Updates the state of the action with the result of a permission and
+     * dispatches the callback if the action is complete. Actions internal
+     * to the library may override this to handle the results differently.
+     *
+     * @param id         the id of the permission, or {@link PlatformPermissions#NO_ID}.
+     * @param permission the permission that changed.
+     * @param result     the result for that permission.
+     * @return true if the action has been completed, false otherwise.
+     */
+    boolean handleResult(int id, @NonNull String permission, Permissions result) {
+        if (id != PlatformPermissions.NO_ID) {
+            if (PermissionBits.clear(mPermissions, id)) {
+                mPermissionCount--;
+            }
+        } else if (mOtherPermissions != null && mOtherPermissions.remove(permission)) {
+            mPermissionCount--;
+        }
         if (result == Permissions.GRANTED) {
-            if (mPermissions.isEmpty()) {
-                new Handler(mLooper).post(new Runnable() {
-                    @Override
-                    public void run() {
-                        onGranted();
-                    }
-                });
+            if (mPermissionCount == 0) {
+                dispatchGranted();
                 return true;
             }
         } else if (result == Permissions.DENIED) {
-            new Handler(mLooper).post(new Runnable() {
-                @Override
-                public void run() {
-                    onDenied(permission);
-                }
-            });
+            dispatchDenied(permission);
+            return true;
+        } else if (result == Permissions.TIMED_OUT) {
+            dispatchTimedOut(permission);
+            return true;
+        } else if (result == Permissions.DENIED_PERMANENTLY) {
+            dispatchDeniedPermanently(permission);
             return true;
         } else if (result == Permissions.NOT_FOUND) {
             if (shouldIgnorePermissionNotFound(permission)) {
-                if (mPermissions.isEmpty()) {
-                    new Handler(mLooper).post(new Runnable() {
-                        @Override
-                        public void run() {
-                            onGranted();
-                        }
-                    });
+                if (mPermissionCount == 0) {
+                    dispatchGranted();
                     return true;
                 }
             } else {
-                new Handler(mLooper).post(new Runnable() {
-                    @Override
-                    public void run() {
-                        onDenied(permission);
-                    }
-                });
+                dispatchDenied(permission);
                 return true;
             }
         }
         return false;
     }
 
+    private void dispatchGranted() {
+        if (mExecutor != null) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onGranted();
+                }
+            });
+        } else if (mDispatcher != null) {
+            mDispatcher.dispatchGranted(this);
+        }
+    }
+
+    private void dispatchDenied(@NonNull final String permission) {
+        if (mExecutor != null) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onDenied(permission);
+                }
+            });
+        } else if (mDispatcher != null) {
+            mDispatcher.dispatchDenied(this, permission);
+        }
+    }
+
+    private void dispatchTimedOut(@NonNull final String permission) {
+        if (mExecutor != null) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onTimedOut(permission);
+                }
+            });
+        } else if (mDispatcher != null) {
+            mDispatcher.dispatchTimedOut(this, permission);
+        }
+    }
+
+    private void dispatchDeniedPermanently(@NonNull final String permission) {
+        if (mExecutor != null) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onDeniedPermanently(permission);
+                }
+            });
+        } else if (mDispatcher != null) {
+            mDispatcher.dispatchDeniedPermanently(this, permission);
+        }
+    }
+
     /**
      * This method registers the PermissionsResultAction object for the specified permissions
      * so that it will know which permissions to look for changes to. The PermissionsResultAction
@@ -183,6 +323,27 @@ public abstract class PermissionsResultAction {
     @SuppressWarnings("WeakerAccess")
     @CallSuper
     protected synchronized final void registerPermissions(@NonNull String[] perms) {
-        Collections.addAll(mPermissions, perms);
+        registerPermissions(perms, PlatformPermissions.idsOf(perms));
+    }
+
+    /**
+     * Same as {@link #registerPermissions(String[])}, but with the ids of the
+     * permissions already looked up in the platform table.
+     */
+    synchronized final void registerPermissions(@NonNull String[] perms, @NonNull int[] ids) {
+        for (int n = 0; n < perms.length; n++) {
+            if (ids[n] != PlatformPermissions.NO_ID) {
+                if (PermissionBits.set(mPermissions, ids[n])) {
+                    mPermissionCount++;
+                }
+            } else {
+                if (mOtherPermissions == null) {
+                    mOtherPermissions = new HashSet<>(1);
+                }
+                if (mOtherPermissions.add(perms[n])) {
+                    mPermissionCount++;
+                }
+            }
+        }
     }
 }
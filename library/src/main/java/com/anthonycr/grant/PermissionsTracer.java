@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A listener that the {@link PermissionsManager} marks the start and end of its work on,
+ * so that the work shows up in system traces. Sections are nested and always begin and
+ * end on the same thread, while async sections span a permissions request from the moment
+ * it is shown to the moment its result is received, and are told apart by their cookie.
+ * Set one with {@link PermissionsManager#setTracer(PermissionsTracer)}.
+ * {@link SystemPermissionsTracer} is an implementation that writes to android.os.Trace.
+ */
+public interface PermissionsTracer {
+
+    /**
+     * The tracer used when none has been set, which ignores every section.
+     */
+    PermissionsTracer NONE = new PermissionsTracer() {
+        @Override
+        public void beginSection(@NonNull String name) {}
+
+        @Override
+        public void endSection() {}
+
+        @Override
+        public void beginAsyncSection(@NonNull String name, int cookie) {}
+
+        @Override
+        public void endAsyncSection(@NonNull String name, int cookie) {}
+    };
+
+    /**
+     * Called when a section of work begins on the current thread.
+     *
+     * @param name the name of the section.
+     */
+    void beginSection(@NonNull String name);
+
+    /**
+     * Called when the last section that began on the current thread ends.
+     */
+    void endSection();
+
+    /**
+     * Called when a section that may end on another thread begins.
+     *
+     * @param name   the name of the section.
+     * @param cookie the cookie that tells the section apart from others of the same name.
+     */
+    void beginAsyncSection(@NonNull String name, int cookie);
+
+    /**
+     * Called when a section that was begun with
+     * {@link #beginAsyncSection(String, int)} ends.
+     *
+     * @param name   the name of the section.
+     * @param cookie the cookie the section was begun with.
+     */
+    void endAsyncSection(@NonNull String name, int cookie);
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+
+/**
+ * The calls the PermissionsManager makes into the Android framework. Keeping
+ * them behind this interface lets the permission engine run against a
+ * simulated platform on the JVM, see {@link AndroidPlatform} for the
+ * implementation that is used on devices.
+ */
+interface Platform {
+
+    /**
+     * @return the SDK version of the platform.
+     */
+    int getSdkInt();
+
+    /**
+     * @param context    the Context to check the permission with.
+     * @param permission the permission to check.
+     * @return {@link PackageManager#PERMISSION_GRANTED} or {@link PackageManager#PERMISSION_DENIED}.
+     */
+    int checkSelfPermission(@NonNull Context context, @NonNull String permission);
+
+    /**
+     * Shows the permissions request to the user, the result is delivered
+     * to the Activity's onRequestPermissionsResult().
+     */
+    void requestPermissions(@NonNull Activity activity, @NonNull String[] permissions, int requestCode);
+
+    /**
+     * Shows the permissions request to the user, the result is delivered
+     * to the Fragment's onRequestPermissionsResult().
+     */
+    void requestPermissions(@NonNull Fragment fragment, @NonNull String[] permissions, int requestCode);
+
+    /**
+     * @param activity   the Activity the permission would be requested from.
+     * @param permission the permission to check.
+     * @return true if a rationale should be shown before requesting the permission again.
+     */
+    boolean shouldShowRequestPermissionRationale(@NonNull Activity activity, @NonNull String permission);
+
+    /**
+     * @param fragment   the Fragment the permission would be requested from.
+     * @param permission the permission to check.
+     * @return true if a rationale should be shown before requesting the permission again.
+     */
+    boolean shouldShowRequestPermissionRationale(@NonNull Fragment fragment, @NonNull String permission);
+
+    /**
+     * @param context     the Context to get the PackageManager from.
+     * @param packageName the package to get the information of.
+     * @param flags       the PackageManager flags of the information to get.
+     * @return the information of the package.
+     * @throws PackageManager.NameNotFoundException if the package is not installed.
+     */
+    @NonNull
+    PackageInfo getPackageInfo(@NonNull Context context, @NonNull String packageName, int flags)
+        throws PackageManager.NameNotFoundException;
+
+    /**
+     * @return the milliseconds since boot, not counting deep sleep.
+     */
+    long getUptimeMillis();
+
+    /**
+     * Runs the task on the main thread after the delay.
+     *
+     * @param task        the task to run.
+     * @param delayMillis the delay in milliseconds.
+     */
+    void postDelayed(@NonNull Runnable task, long delayMillis);
+
+    /**
+     * Removes the task if it has not been run yet.
+     *
+     * @param task the task passed to {@link #postDelayed(Runnable, long)}.
+     */
+    void removeCallbacks(@NonNull Runnable task);
+
+    void logDebug(@NonNull String tag, @NonNull String message);
+
+    void logError(@NonNull String tag, @NonNull String message, @Nullable Throwable throwable);
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lookup methods for the generated {@link PermissionTable}. A permission's
+ * id is its index in the sorted table, so membership checks are a binary
+ * search over a static array rather than a reflective scan of the
+ * Manifest.permission class.
+ * <p/>
+ * The table only knows the permissions of the SDK the library was compiled
+ * against, so permissions added in later versions of Android, and permissions
+ * defined by applications, are given one of a fixed number of ids after the
+ * table the first time they are seen. Those permissions are always checked and
+ * requested through the system, which knows whether they exist.
+ */
+final class PlatformPermissions {
+
+    /**
+     * The id returned for permissions that are not part of the platform table.
+     */
+    static final int NO_ID = -1;
+
+    // The number of ids after the table that permissions unknown to it can be given
+    private static final int EXTRA_IDS = 64;
+
+    private static final ConcurrentMap<String, Integer> sExtraIds = new ConcurrentHashMap<>(1);
+    private static final AtomicReferenceArray<String> sExtraNames = new AtomicReferenceArray<>(EXTRA_IDS);
+
+    private PlatformPermissions() {}
+
+    /**
+     * @return the number of ids, which is the size of the platform table
+     * and the ids that permissions unknown to it can be given.
+     */
+    static int size() {
+        return PermissionTable.NAMES.length + EXTRA_IDS;
+    }
+
+    /**
+     * Returns the id of the permission in the platform table, or the id it has been
+     * given by {@link #intern(String)} if it is not part of the table.
+     *
+     * @param permission the permission to look up.
+     * @return the id of the permission, or {@link #NO_ID} if the permission
+     * is not a platform permission and has not been given an id.
+     */
+    static int idOf(@NonNull String permission) {
+        int index = Arrays.binarySearch(PermissionTable.NAMES, permission);
+        if (index >= 0) {
+            return index;
+        }
+        Integer extra = sExtraIds.get(permission);
+        return extra != null ? extra : NO_ID;
+    }
+
+    /**
+     * Returns the id of the permission, giving it one of the ids after the platform
+     * table if it is not part of the table. Once those ids have run out, permissions
+     * unknown to the table are treated as not existing, as they were before.
+     *
+     * @param permission the permission to look up.
+     * @return the id of the permission, or {@link #NO_ID} if it could not be given one.
+     */
+    static int intern(@NonNull String permission) {
+        int id = idOf(permission);
+        if (id != NO_ID) {
+            return id;
+        }
+        synchronized (sExtraIds) {
+            Integer extra = sExtraIds.get(permission);
+            if (extra != null) {
+                return extra;
+            }
+            int count = sExtraIds.size();
+            if (count == EXTRA_IDS) {
+                return NO_ID;
+            }
+            // The name is set before the id is published, so it is visible to anyone who finds the id
+            sExtraNames.set(count, permission);
+            id = PermissionTable.NAMES.length + count;
+            sExtraIds.put(permission, id);
+            return id;
+        }
+    }
+
+    /**
+     * Returns the ids of the permissions, giving the permissions that are
+     * not part of the platform table an id with {@link #intern(String)}.
+     *
+     * @param permissions the permissions to look up.
+     * @return an array with the id of each permission, where permissions that
+     * could not be given an id have the id {@link #NO_ID}.
+     */
+    @NonNull
+    static int[] idsOf(@NonNull String[] permissions) {
+        int[] ids = new int[permissions.length];
+        for (int n = 0; n < permissions.length; n++) {
+            ids[n] = intern(permissions[n]);
+        }
+        return ids;
+    }
+
+    /**
+     * @param id the id of the permission.
+     * @return the permission string with the given id.
+     */
+    @NonNull
+    static String nameOf(int id) {
+        int length = PermissionTable.NAMES.length;
+        return id < length ? PermissionTable.NAMES[id] : sExtraNames.get(id - length);
+    }
+
+    /**
+     * Determines whether the permission with the given id exists on the Android
+     * version the application is running on. Only the permissions of the platform
+     * table that were added in a later version are known not to exist, the system
+     * is asked about any other permission.
+     *
+     * @param id     the id of the permission, may be {@link #NO_ID}.
+     * @param sdkInt the SDK version of the platform, see {@link Platform#getSdkInt()}.
+     * @return true if the permission may exist on this device, false otherwise.
+     */
+    static boolean isAvailable(int id, int sdkInt) {
+        return id != NO_ID
+            && (id >= PermissionTable.NAMES.length || PermissionTable.MIN_SDK[id] <= sdkInt);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The Activity or Fragment a permissions request is made from. The host is
+ * only weakly referenced so that a queued request does not leak it.
+ */
+abstract class RequestHost {
+
+    /**
+     * Asks the system to request the permissions from the user.
+     *
+     * @param permissions the permissions to request.
+     * @param requestCode the request code to pass along with the permissions.
+     * @return true if the request was made, false if the host is no longer available.
+     */
+    abstract boolean requestPermissions(@NonNull String[] permissions, int requestCode);
+
+    /**
+     * @return true if the host can still receive the result of a request, false if it
+     * has been garbage collected, detached, finished or destroyed. A host that is being
+     * recreated for a configuration change is still available, since the result of its
+     * request is delivered to the recreated Activity.
+     */
+    abstract boolean isAvailable();
+
+    /**
+     * @param activity the Activity to check.
+     * @return true if the host is the Activity or a Fragment attached to it.
+     */
+    abstract boolean isHostedBy(@NonNull Activity activity);
+
+    /**
+     * @param permission the permission to check.
+     * @return true if a rationale should be shown before requesting the permission again,
+     * or if the host is no longer available to tell.
+     */
+    abstract boolean shouldShowRequestPermissionRationale(@NonNull String permission);
+
+    /**
+     * @return a Context to check permissions with, or null if the host is no longer available.
+     */
+    @Nullable
+    abstract Context getContext();
+
+    /**
+     * @param platform the platform to get the SDK version from.
+     * @param activity the Activity to check.
+     * @return true if the Activity is neither finishing nor destroyed, nor
+     * going away to be recreated for a configuration change.
+     */
+    static boolean isAlive(@NonNull Platform platform, @NonNull Activity activity) {
+        return !activity.isFinishing()
+            && !isRecreating(platform, activity)
+            && (platform.getSdkInt() < Build.VERSION_CODES.JELLY_BEAN_MR1 || !isDestroyed(activity));
+    }
+
+    /**
+     * @param platform the platform to get the SDK version from.
+     * @param activity the Activity to check.
+     * @return true if the Activity is being, or has been, destroyed to be recreated
+     * for a configuration change, e.g. a rotation.
+     */
+    static boolean isRecreating(@NonNull Platform platform, @NonNull Activity activity) {
+        return platform.getSdkInt() >= Build.VERSION_CODES.HONEYCOMB && isChangingConfigurations(activity);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static boolean isDestroyed(@NonNull Activity activity) {
+        return activity.isDestroyed();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean isChangingConfigurations(@NonNull Activity activity) {
+        return activity.isChangingConfigurations();
+    }
+
+    @NonNull
+    static RequestHost of(@NonNull Platform platform, @NonNull Activity activity) {
+        return new ActivityHost(platform, activity);
+    }
+
+    @NonNull
+    static RequestHost of(@NonNull Platform platform, @NonNull Fragment fragment) {
+        return new FragmentHost(platform, fragment);
+    }
+
+    private static final class ActivityHost extends RequestHost {
+
+        @NonNull private final Platform mPlatform;
+        @NonNull private final WeakReference<Activity> mActivity;
+
+        ActivityHost(@NonNull Platform platform, @NonNull Activity activity) {
+            mPlatform = platform;
+            mActivity = new WeakReference<>(activity);
+        }
+
+        @Override
+        boolean requestPermissions(@NonNull String[] permissions, int requestCode) {
+            Activity activity = mActivity.get();
+            if (activity == null || !isAlive(mPlatform, activity)) {
+                return false;
+            }
+            mPlatform.requestPermissions(activity, permissions, requestCode);
+            return true;
+        }
+
+        @Override
+        boolean isAvailable() {
+            Activity activity = mActivity.get();
+            return activity != null && (isAlive(mPlatform, activity) || isRecreating(mPlatform, activity));
+        }
+
+        @Override
+        boolean isHostedBy(@NonNull Activity activity) {
+            return mActivity.get() == activity;
+        }
+
+        @Nullable
+        @Override
+        Context getContext() {
+            return mActivity.get();
+        }
+
+        @Override
+        boolean shouldShowRequestPermissionRationale(@NonNull String permission) {
+            Activity activity = mActivity.get();
+            return activity == null || mPlatform.shouldShowRequestPermissionRationale(activity, permission);
+        }
+    }
+
+    private static final class FragmentHost extends RequestHost {
+
+        @NonNull private final Platform mPlatform;
+        @NonNull private final WeakReference<Fragment> mFragment;
+        // The Activity the Fragment was attached to, since it is detached while being recreated
+        @NonNull private final WeakReference<Activity> mActivity;
+
+        FragmentHost(@NonNull Platform platform, @NonNull Fragment fragment) {
+            mPlatform = platform;
+            mFragment = new WeakReference<>(fragment);
+            mActivity = new WeakReference<Activity>(fragment.getActivity());
+        }
+
+        @Override
+        boolean requestPermissions(@NonNull String[] permissions, int requestCode) {
+            Fragment fragment = mFragment.get();
+            Activity activity = fragment != null ? fragment.getActivity() : null;
+            if (activity == null || !isAlive(mPlatform, activity)) {
+                return false;
+            }
+            mPlatform.requestPermissions(fragment, permissions, requestCode);
+            return true;
+        }
+
+        @Override
+        boolean isAvailable() {
+            Fragment fragment = mFragment.get();
+            Activity activity = mActivity.get();
+            if (fragment == null || activity == null) {
+                return false;
+            }
+            if (isRecreating(mPlatform, activity)) {
+                return true;
+            }
+            return fragment.getActivity() == activity && isAlive(mPlatform, activity);
+        }
+
+        @Override
+        boolean isHostedBy(@NonNull Activity activity) {
+            Fragment fragment = mFragment.get();
+            return fragment != null && fragment.getActivity() == activity;
+        }
+
+        @Nullable
+        @Override
+        Context getContext() {
+            Fragment fragment = mFragment.get();
+            return fragment != null ? fragment.getActivity() : null;
+        }
+
+        @Override
+        boolean shouldShowRequestPermissionRationale(@NonNull String permission) {
+            Fragment fragment = mFragment.get();
+            return fragment == null || fragment.getActivity() == null
+                || mPlatform.shouldShowRequestPermissionRationale(fragment, permission);
+        }
+    }
+}
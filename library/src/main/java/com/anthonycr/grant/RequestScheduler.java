@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Schedules the system permissions requests so that only one request, and
+ * therefore one system dialog, is in flight at a time. Permissions requested
+ * while a request is in flight are merged into a single queued request that
+ * is made as soon as the result of the current one arrives. Every request
+ * is made with its own request code so that its result can be told apart
+ * from other results. This class is not thread safe.
+ */
+final class RequestScheduler {
+
+    static final int NO_REQUEST = -1;
+
+    // Fragments only allow the lower 8 bits of the request code to be used
+    private static final int FIRST_REQUEST_CODE = 0x80;
+    private static final int LAST_REQUEST_CODE = 0xFF;
+
+    private int mNextRequestCode = FIRST_REQUEST_CODE;
+    private int mInFlightCode = NO_REQUEST;
+    @Nullable private RequestHost mInFlightHost;
+
+    private final long[] mInFlight = PermissionBits.create();
+    private final long[] mQueued = PermissionBits.create();
+    private final List<RequestHost> mQueuedHosts = new ArrayList<>(1);
+
+    @NonNull private final SharedState mShared;
+    @NonNull private final Platform mPlatform;
+    private long mInFlightSince;
+    private long mInFlightSinceMillis;
+    private boolean mInFlightTimedOut;
+    @Nullable private PermissionsTracer mInFlightTracer;
+    private int mInFlightCookie;
+
+    RequestScheduler(@NonNull SharedState shared) {
+        mShared = shared;
+        mPlatform = shared.platform;
+    }
+
+    /**
+     * @param id the id of the permission to check.
+     * @return true if the permission is part of the request in flight
+     * or the queued request, false otherwise.
+     */
+    boolean isPending(int id) {
+        return PermissionBits.get(mInFlight, id) || PermissionBits.get(mQueued, id);
+    }
+
+    /**
+     * @param id the id of the permission to check.
+     * @return true if the permission is part of the queued request, false otherwise.
+     */
+    boolean isQueued(int id) {
+        return PermissionBits.get(mQueued, id);
+    }
+
+    /**
+     * Removes the permission from the queued request once its result is known without
+     * asking. If nothing is left in the queued request, it is dropped when the request
+     * in flight finishes.
+     *
+     * @param id the id of the permission to remove.
+     */
+    void removeQueued(int id) {
+        PermissionBits.clear(mQueued, id);
+    }
+
+    /**
+     * @param id the id of the permission to check.
+     * @return true if the permission is part of the request in flight, false otherwise.
+     */
+    boolean isPermissionInFlight(int id) {
+        return PermissionBits.get(mInFlight, id);
+    }
+
+    /**
+     * @param requestCode the request code of a permissions result.
+     * @return true if the request code belongs to the request in flight, false otherwise.
+     */
+    boolean isRequestInFlight(int requestCode) {
+        return mInFlightCode != NO_REQUEST && mInFlightCode == requestCode;
+    }
+
+    /**
+     * @return the uptime in milliseconds the request in flight was made at,
+     * or {@link #NO_REQUEST} if there is no request in flight.
+     */
+    long getInFlightSince() {
+        return mInFlightCode != NO_REQUEST ? mInFlightSinceMillis : NO_REQUEST;
+    }
+
+    /**
+     * @return true if the actions waiting on the request in flight have been timed out,
+     * while the request still waits for its result.
+     */
+    boolean isInFlightTimedOut() {
+        return mInFlightCode != NO_REQUEST && mInFlightTimedOut;
+    }
+
+    /**
+     * Marks the request in flight as timed out. It stays in flight, since its dialog may
+     * still be showing and another request would only be answered with an empty result.
+     */
+    void onInFlightTimedOut() {
+        mInFlightTimedOut = true;
+    }
+
+    /**
+     * @return a copy of the ids of the permissions in the request in flight.
+     */
+    @NonNull
+    long[] getInFlight() {
+        return mInFlight.clone();
+    }
+
+    /**
+     * @return the request code of the request in flight, or {@link #NO_REQUEST}.
+     */
+    int getInFlightCode() {
+        return mInFlightCode;
+    }
+
+    /**
+     * @return the host of the request in flight, or null if there is none or the
+     * request was restored after its host was recreated, until another host adopts it.
+     */
+    @Nullable
+    RequestHost getInFlightHost() {
+        return mInFlightHost;
+    }
+
+    /**
+     * @return true if the Activity or Fragment the request in flight was made from is no
+     * longer available, in which case its result will never arrive. A restored request
+     * has no host until one adopts it, and is not considered abandoned.
+     */
+    boolean isInFlightAbandoned() {
+        return mInFlightCode != NO_REQUEST && mInFlightHost != null && !mInFlightHost.isAvailable();
+    }
+
+    /**
+     * @return the request code the next request will be made with.
+     */
+    int getNextRequestCode() {
+        return mNextRequestCode;
+    }
+
+    /**
+     * @param activity the Activity to check.
+     * @return true if the request in flight was made from the Activity or one of its Fragments.
+     */
+    boolean isInFlightFrom(@NonNull Activity activity) {
+        return mInFlightHost != null && mInFlightHost.isHostedBy(activity);
+    }
+
+    /**
+     * Makes the host the host of the restored request in flight, so that the request can be
+     * saved again and is finished if the host goes away. Does nothing if the request in
+     * flight still has its host.
+     *
+     * @param host the host that is making a request, normally the one that restored it.
+     */
+    void adoptInFlight(@NonNull RequestHost host) {
+        if (mInFlightCode != NO_REQUEST && mInFlightHost == null) {
+            mInFlightHost = host;
+        }
+    }
+
+    /**
+     * Marks a request that was made before its host was recreated as in flight, so that
+     * its permissions are not requested again and its result is accepted when it arrives.
+     * If the request is still in flight, because only the host was recreated for a
+     * configuration change, it stays in flight and is detached from the old host. Nothing
+     * is restored if another request is in flight or the request code is not one that
+     * this class could have made.
+     *
+     * @param requestCode     the request code of the request in flight.
+     * @param permissions     the ids of the permissions of the request in flight.
+     * @param sinceMillis     the uptime in milliseconds the request was made at.
+     * @param nextRequestCode the request code the next request should be made with.
+     * @return true if the request was restored, false otherwise.
+     */
+    boolean restoreInFlight(int requestCode, @NonNull long[] permissions, long sinceMillis, int nextRequestCode) {
+        if (mInFlightCode != NO_REQUEST && mInFlightCode == requestCode) {
+            mInFlightHost = null;
+            return true;
+        }
+        if (mInFlightCode != NO_REQUEST || !isRequestCode(requestCode) || PermissionBits.isEmpty(permissions)) {
+            return false;
+        }
+        mInFlightCode = requestCode;
+        mInFlightHost = null;
+        mInFlightTimedOut = false;
+        mInFlightSince = System.nanoTime();
+        // The uptime keeps counting across processes, unless the device rebooted
+        long now = mPlatform.getUptimeMillis();
+        mInFlightSinceMillis = sinceMillis <= now ? sinceMillis : now;
+        PermissionBits.addAll(mInFlight, permissions);
+        if (isRequestCode(nextRequestCode)) {
+            mNextRequestCode = nextRequestCode;
+        }
+        return true;
+    }
+
+    private static boolean isRequestCode(int requestCode) {
+        return requestCode >= FIRST_REQUEST_CODE && requestCode <= LAST_REQUEST_CODE;
+    }
+
+    /**
+     * Requests the permissions from the host right away if no request is
+     * in flight, or merges them into the queued request otherwise.
+     *
+     * @param host        the host to request the permissions from.
+     * @param permissions the ids of the permissions to request, none of which are pending.
+     */
+    void schedule(@NonNull RequestHost host, @NonNull long[] permissions) {
+        if (mInFlightCode == NO_REQUEST) {
+            issue(host, permissions);
+        } else {
+            PermissionBits.addAll(mQueued, permissions);
+            mQueuedHosts.add(host);
+        }
+    }
+
+    /**
+     * Marks the request in flight as finished and makes the queued request, if
+     * there is one, from the most recent host that is still available. If none
+     * of the hosts are available, the queued permissions are dropped so that
+     * they can be requested again.
+     */
+    void onRequestFinished() {
+        if (mInFlightCode != NO_REQUEST) {
+            mShared.metrics.onRequestFinished(mInFlightCode, System.nanoTime() - mInFlightSince);
+        }
+        if (mInFlightTracer != null) {
+            mInFlightTracer.endAsyncSection(Tracing.REQUEST, mInFlightCookie);
+            mInFlightTracer = null;
+        }
+        PermissionBits.clearAll(mInFlight);
+        mInFlightCode = NO_REQUEST;
+        mInFlightHost = null;
+        mInFlightTimedOut = false;
+        for (int n = mQueuedHosts.size() - 1; n >= 0; n--) {
+            if (issue(mQueuedHosts.get(n), mQueued)) {
+                return;
+            }
+        }
+        PermissionBits.clearAll(mQueued);
+        mQueuedHosts.clear();
+    }
+
+    private boolean issue(@NonNull RequestHost host, @NonNull long[] permissions) {
+        if (PermissionBits.isEmpty(permissions)) {
+            return false;
+        }
+        int requestCode = mNextRequestCode;
+        String[] names = PermissionBits.toNames(permissions);
+        long since = System.nanoTime();
+        if (!host.requestPermissions(names, requestCode)) {
+            return false;
+        }
+        mShared.metrics.onRequestStarted(requestCode, names);
+        PermissionsTracer tracer = Tracing.sTracer;
+        if (tracer != PermissionsTracer.NONE) {
+            mInFlightTracer = tracer;
+            mInFlightCookie = Tracing.nextCookie();
+            tracer.beginAsyncSection(Tracing.REQUEST, mInFlightCookie);
+        }
+        mInFlightSince = since;
+        mInFlightSinceMillis = mPlatform.getUptimeMillis();
+        mNextRequestCode = requestCode == LAST_REQUEST_CODE ? FIRST_REQUEST_CODE : requestCode + 1;
+        mInFlightCode = requestCode;
+        mInFlightHost = host;
+        PermissionBits.addAll(mInFlight, permissions);
+        PermissionBits.clearAll(mQueued);
+        mQueuedHosts.clear();
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The state that is shared by a PermissionsManager and the managers scoped to its
+ * Activities and Fragments. The platform, the manifest permissions, the grant state
+ * of the permissions and their permanent denials belong to the process, while the
+ * pending actions belong to each manager. The requests are scheduled together,
+ * since the system only shows one permissions dialog at a time, and a second request
+ * made while one is showing is answered with an empty result. Permission observers
+ * are shared as well, since they observe the grant state rather than the requests of
+ * a manager. Also keeps the index of the scoped managers, so that the scope of a host
+ * can be dropped when the host is destroyed, and results can reach the actions of
+ * every manager.
+ * <p/>
+ * The managers lock this object while they change the requests or their actions.
+ */
+final class SharedState implements HostTracker.Listener {
+
+    @NonNull final Platform platform;
+    // Guarded by this
+    final RequestScheduler scheduler;
+    final ConcurrentMap<String, FutureTask<ManifestPermissions>> manifestPermissions = new ConcurrentHashMap<>(1);
+    final GrantStateCache grantStates = new GrantStateCache();
+    final PermanentDenials permanentDenials = new PermanentDenials();
+    final AtomicBoolean foregroundTrackerRegistered = new AtomicBoolean(false);
+    @NonNull volatile PermissionsMetrics metrics = PermissionsMetrics.NONE;
+    @Nullable volatile PermissionSnapshot snapshot;
+    // Guarded by itself, and only locked after the lock of a manager if both are needed
+    final PermissionObservers observers = new PermissionObservers();
+
+    // The keys are weak so that hosts that are never reported destroyed are still collected
+    private final Map<Object, PermissionsManager> mScopes = new WeakHashMap<>();
+    private final Map<FragmentManager, Boolean> mTrackedFragmentManagers = new WeakHashMap<>();
+    private final HostTracker mHostTracker = new HostTracker(this);
+    private boolean mActivitiesTracked = false;
+    @Nullable private PermissionsManager mRoot;
+
+    SharedState(@NonNull Platform platform) {
+        this.platform = platform;
+        this.scheduler = new RequestScheduler(this);
+    }
+
+    /**
+     * @param root the manager that is not scoped to a host, which all the scopes are created from.
+     */
+    synchronized void setRoot(@NonNull PermissionsManager root) {
+        mRoot = root;
+    }
+
+    /**
+     * @return the manager that is not scoped and the scoped managers whose host is alive.
+     */
+    @NonNull
+    synchronized List<PermissionsManager> getManagers() {
+        List<PermissionsManager> managers = new ArrayList<>(mScopes.size() + 1);
+        if (mRoot != null) {
+            managers.add(mRoot);
+        }
+        managers.addAll(mScopes.values());
+        return managers;
+    }
+
+    /**
+     * Returns the manager scoped to the Activity, creating it if it does not exist.
+     *
+     * @param activity             the Activity that the manager is scoped to.
+     * @param requestTimeoutMillis the request timeout of a new scope.
+     * @return the manager scoped to the Activity.
+     */
+    @NonNull
+    synchronized PermissionsManager getScope(@NonNull Activity activity, long requestTimeoutMillis) {
+        PermissionsManager scope = mScopes.get(activity);
+        if (scope == null) {
+            scope = new PermissionsManager(this, requestTimeoutMillis);
+            mScopes.put(activity, scope);
+            trackActivities(activity);
+        }
+        return scope;
+    }
+
+    /**
+     * Returns the manager scoped to the Fragment, creating it if it does not exist.
+     *
+     * @param fragment             the Fragment that the manager is scoped to.
+     * @param requestTimeoutMillis the request timeout of a new scope.
+     * @return the manager scoped to the Fragment.
+     */
+    @NonNull
+    synchronized PermissionsManager getScope(@NonNull Fragment fragment, long requestTimeoutMillis) {
+        PermissionsManager scope = mScopes.get(fragment);
+        if (scope == null) {
+            scope = new PermissionsManager(this, requestTimeoutMillis);
+            mScopes.put(fragment, scope);
+            trackFragments(fragment.getFragmentManager());
+        }
+        return scope;
+    }
+
+    @Override
+    public void onHostDestroyed(@NonNull Object host) {
+        PermissionsManager scope;
+        synchronized (this) {
+            scope = mScopes.remove(host);
+        }
+        if (scope != null) {
+            scope.release();
+        }
+    }
+
+    /**
+     * Registers the tracker with the application the first time an Activity scope is
+     * created. Before Ice Cream Sandwich there are no lifecycle callbacks, so the scopes
+     * are only dropped once their Activity has been garbage collected.
+     *
+     * @param activity the Activity used to get the application.
+     */
+    private void trackActivities(@NonNull Activity activity) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        Context applicationContext = activity.getApplicationContext();
+        if (!mActivitiesTracked && applicationContext instanceof Application) {
+            ((Application) applicationContext).registerActivityLifecycleCallbacks(mHostTracker);
+            mActivitiesTracked = true;
+        }
+    }
+
+    /**
+     * Registers the tracker with the FragmentManager the first time a Fragment scope of one
+     * of its Fragments is created. The tracker is never unregistered, since it goes away with
+     * the FragmentManager, and unregistering while the callbacks are dispatched is not safe.
+     * If the Fragment is not added yet, its scope is only dropped once it has been garbage
+     * collected.
+     *
+     * @param fragmentManager the FragmentManager of the Fragment, may be null.
+     */
+    private void trackFragments(@Nullable FragmentManager fragmentManager) {
+        if (fragmentManager == null || mTrackedFragmentManagers.containsKey(fragmentManager)) {
+            return;
+        }
+        fragmentManager.registerFragmentLifecycleCallbacks(mHostTracker, false);
+        mTrackedFragmentManagers.put(fragmentManager, Boolean.TRUE);
+    }
+}
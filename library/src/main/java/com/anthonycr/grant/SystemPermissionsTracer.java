@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+/**
+ * A {@link PermissionsTracer} that writes the sections to android.os.Trace, so that they
+ * show up in systrace and Perfetto traces. Sections need Android 4.3 and are ignored on
+ * older versions. Async sections are only public API since Android 10, so they are called
+ * through reflection, falling back to the hidden methods that older versions have, and are
+ * ignored if neither can be found. Below Android 4.3 the tracer does nothing.
+ */
+public class SystemPermissionsTracer implements PermissionsTracer {
+
+    private static final String TAG = SystemPermissionsTracer.class.getSimpleName();
+
+    // Trace.TRACE_TAG_APP, which the hidden async methods take as their first argument
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    private final boolean mSectionsSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    @Nullable private final Method mBeginAsyncSection;
+    @Nullable private final Method mEndAsyncSection;
+    private final boolean mTagged;
+    private volatile boolean mAsyncSectionsFailed = false;
+
+    public SystemPermissionsTracer() {
+        if (!mSectionsSupported) {
+            // Trace itself is missing before Android 4.3, so do not touch the class at all
+            mBeginAsyncSection = null;
+            mEndAsyncSection = null;
+            mTagged = false;
+            return;
+        }
+        Method begin = findMethod("beginAsyncSection", String.class, int.class);
+        Method end = findMethod("endAsyncSection", String.class, int.class);
+        boolean tagged = false;
+        if (begin == null || end == null) {
+            begin = findMethod("asyncTraceBegin", long.class, String.class, int.class);
+            end = findMethod("asyncTraceEnd", long.class, String.class, int.class);
+            tagged = true;
+        }
+        mBeginAsyncSection = end != null ? begin : null;
+        mEndAsyncSection = begin != null ? end : null;
+        mTagged = tagged;
+    }
+
+    @Nullable
+    private static Method findMethod(@NonNull String name, @NonNull Class<?>... parameterTypes) {
+        try {
+            return Trace.class.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (LinkageError e) {
+            Log.e(TAG, "Unable to look up " + name, e);
+            return null;
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public void beginSection(@NonNull String name) {
+        if (mSectionsSupported) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public void endSection() {
+        if (mSectionsSupported) {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void beginAsyncSection(@NonNull String name, int cookie) {
+        invokeAsyncSection(mBeginAsyncSection, name, cookie);
+    }
+
+    @Override
+    public void endAsyncSection(@NonNull String name, int cookie) {
+        invokeAsyncSection(mEndAsyncSection, name, cookie);
+    }
+
+    private void invokeAsyncSection(@Nullable Method method, @NonNull String name, int cookie) {
+        if (method == null || mAsyncSectionsFailed) {
+            return;
+        }
+        try {
+            if (mTagged) {
+                method.invoke(null, TRACE_TAG_APP, name, cookie);
+            } else {
+                method.invoke(null, name, cookie);
+            }
+        } catch (Exception e) {
+            // Stop trying rather than failing on every request
+            mAsyncSectionsFailed = true;
+            Log.e(TAG, "Unable to trace async sections", e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 Anthony C. Restaino
+ * <p/>
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.anthonycr.grant;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The names of the trace sections and the {@link PermissionsTracer} they are written to.
+ * The tracer is process wide, like the system trace it usually writes to. Callers read
+ * the tracer once and end their section on the same tracer, so sections stay balanced
+ * if the tracer is changed while they are open.
+ */
+final class Tracing {
+
+    static final String REQUEST = "PermissionsManager#request";
+    static final String LOAD_PLATFORM_PERMISSIONS = "PermissionsManager#loadPlatformPermissions";
+    static final String GET_MANIFEST_PERMISSIONS = "PermissionsManager#getManifestPermissions";
+    static final String READ_MANIFEST = "PermissionsManager#readManifest";
+    static final String CHECK_PERMISSIONS = "PermissionsManager#checkPermissions";
+    static final String CHECK_SELF_PERMISSION = "PermissionsManager#checkSelfPermission";
+    static final String DISPATCH_RESULTS = "PermissionsManager#dispatchResults";
+    static final String DISPATCH_CALLBACKS = "PermissionsResultAction#dispatch";
+
+    @NonNull static volatile PermissionsTracer sTracer = PermissionsTracer.NONE;
+
+    private static final AtomicInteger sNextCookie = new AtomicInteger();
+
+    private Tracing() {}
+
+    /**
+     * @return a cookie for an async section that no other open section has.
+     */
+    static int nextCookie() {
+        return sNextCookie.incrementAndGet();
+    }
+}
@@ -41,6 +41,8 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        // Restoring a request that was showing when the process was killed, before requesting again
+        PermissionsManager.getInstance().restoreInstanceState(savedInstanceState);
         // Requesting all the permissions in the manifest
         PermissionsManager.getInstance().requestAllManifestPermissionsIfNecessary(this, new PermissionsResultAction() {
             @Override
@@ -119,12 +121,18 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        PermissionsManager.getInstance().saveInstanceState(this, outState);
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode,
                                            @NonNull String[] permissions,
                                            @NonNull int[] grantResults) {
         Log.i(TAG, "Activity-onRequestPermissionsResult() PermissionsManager.notifyPermissionsChange()");
-        PermissionsManager.getInstance().notifyPermissionsChange(permissions, grantResults);
+        PermissionsManager.getInstance().notifyPermissionsChange(requestCode, permissions, grantResults);
     }
 
     @SuppressLint("InlinedApi")